@@ -0,0 +1,67 @@
+package se.divdev.rswsc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.divdev.rswsc.OpCode;
+import se.divdev.rswsc.WebSocketFrame;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of single frames, around the length encoding boundaries of 125 and 126 bytes
+ * and the 64 bit lengths above 64K.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+    @Param({"0", "125", "126", "65536", "1048576"})
+    public int payloadSize;
+
+    private byte[] payload;
+
+    private WebSocketFrame outgoing;
+
+    private byte[] maskedFrame;
+
+    private byte[] unmaskedFrame;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        outgoing = WebSocketFrame.outgoing(OpCode.BINARY);
+        maskedFrame = outgoing.build(true, payload);
+        unmaskedFrame = WebSocketFrame.outgoing(OpCode.BINARY, false).build(true, payload);
+    }
+
+    @Benchmark
+    public byte[] build() throws IOException {
+        return outgoing.build(true, payload);
+    }
+
+    @Benchmark
+    public WebSocketFrame incomingMasked() throws IOException {
+        return WebSocketFrame.incoming(maskedFrame);
+    }
+
+    @Benchmark
+    public WebSocketFrame incomingUnmasked() throws IOException {
+        return WebSocketFrame.incoming(unmaskedFrame);
+    }
+}
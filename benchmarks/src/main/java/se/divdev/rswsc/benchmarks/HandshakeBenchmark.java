@@ -0,0 +1,44 @@
+package se.divdev.rswsc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.divdev.rswsc.WebSocketUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of the handshake key and of the accept value checked against the server response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    private String key;
+
+    @Setup
+    public void setup() {
+        key = WebSocketUtils.generateWebSocketKey();
+    }
+
+    @Benchmark
+    public String generateKey() {
+        return WebSocketUtils.generateWebSocketKey();
+    }
+
+    @Benchmark
+    public String generateAccept() {
+        return WebSocketUtils.generateSecWebSocketAccept(key);
+    }
+}
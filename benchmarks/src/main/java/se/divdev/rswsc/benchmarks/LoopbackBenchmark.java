@@ -0,0 +1,113 @@
+package se.divdev.rswsc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.divdev.rswsc.EventLoopGroup;
+import se.divdev.rswsc.RswsClient;
+import se.divdev.rswsc.RswsClientBuilder;
+import se.divdev.rswsc.WebSocketEvent;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary messages sent through {@link RswsClient} to a server on the loopback interface and echoed back,
+ * over the blocking and the event loop transports. {@link #pipelined()} reports messages per second with
+ * a window of messages in flight, {@link #roundTrip()} the latency distribution of one message at a time.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final int WINDOW = 64;
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Param({"blocking", "nio"})
+    public String transport;
+
+    @Param({"16", "1024", "65536"})
+    public int messageSize;
+
+    private final Semaphore echoes = new Semaphore(0);
+
+    private LoopbackServer server;
+
+    private EventLoopGroup eventLoopGroup;
+
+    private RswsClient client;
+
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        message = new byte[messageSize];
+        new Random(42).nextBytes(message);
+        server = LoopbackServer.start();
+        RswsClientBuilder builder = RswsClientBuilder.newBuilder(server.uri())
+                .withEventHandler(new WebSocketEvent() {
+                    @Override
+                    public void onData(final boolean finalFragment, final byte[] payload) {
+                        if (finalFragment) {
+                            echoes.release();
+                        }
+                    }
+                });
+        if ("nio".equals(transport)) {
+            eventLoopGroup = new EventLoopGroup(1);
+            builder = builder.withEventLoopGroup(eventLoopGroup);
+        }
+        client = builder.build().connect();
+        client.runAsync();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        if (eventLoopGroup != null) {
+            eventLoopGroup.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(WINDOW)
+    public void pipelined() throws Exception {
+        for (int i = 0; i < WINDOW; i++) {
+            client.sendBinary(message);
+        }
+        awaitEchoes(WINDOW);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip() throws Exception {
+        client.sendBinary(message);
+        awaitEchoes(1);
+    }
+
+    private void awaitEchoes(final int count) throws InterruptedException {
+        if (!echoes.tryAcquire(count, TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No echo within " + TIMEOUT_SECONDS + " seconds");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package se.divdev.rswsc.benchmarks;
+
+import se.divdev.rswsc.WebSocketUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Minimal WebSocket server on the loopback interface that echoes every frame back unmasked, with a
+ * thread per connection. Only as much of the protocol as the benchmarks need.
+ */
+final class LoopbackServer implements Closeable {
+
+    private static final String KEY_HEADER = "sec-websocket-key:";
+
+    private static final int CLOSE = 0x8;
+
+    private static final int PING = 0x9;
+
+    private static final int PONG = 0xA;
+
+    private final ServerSocket serverSocket;
+
+    private LoopbackServer(final ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+    }
+
+    static LoopbackServer start() throws IOException {
+        LoopbackServer server = new LoopbackServer(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+        Thread acceptor = new Thread(server::accept, "loopback-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    URI uri() {
+        return URI.create("ws://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread connection = new Thread(() -> echo(socket), "loopback-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private static void echo(final Socket socket) {
+        try (Socket closing = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            handshake(in, out);
+            byte[] payload = new byte[0];
+            while (true) {
+                int first = in.readUnsignedByte();
+                int second = in.readUnsignedByte();
+                long length = second & 0x7F;
+                if (length == 126) {
+                    length = in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = in.readLong();
+                }
+                byte[] mask = new byte[4];
+                if ((second & 0x80) != 0) {
+                    in.readFully(mask);
+                }
+                if (payload.length < length) {
+                    payload = new byte[(int) length];
+                }
+                in.readFully(payload, 0, (int) length);
+                for (int i = 0; i < length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+                int opCode = first & 0x0F;
+                if (opCode == PING) {
+                    first = (first & 0xF0) | PONG;
+                }
+                out.write(first);
+                if (length < 126) {
+                    out.write((int) length);
+                } else if (length <= 0xFFFF) {
+                    out.write(126);
+                    out.write((int) (length >>> 8));
+                    out.write((int) length);
+                } else {
+                    out.write(127);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.write((int) (length >>> shift));
+                    }
+                }
+                out.write(payload, 0, (int) length);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+                if (opCode == CLOSE) {
+                    out.flush();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Connection gone
+        }
+    }
+
+    private static void handshake(final DataInputStream in, final OutputStream out) throws IOException {
+        String key = null;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            if (line.toLowerCase(Locale.ROOT).startsWith(KEY_HEADER)) {
+                key = line.substring(KEY_HEADER.length()).trim();
+            }
+        }
+        if (key == null) {
+            throw new IOException("Missing " + KEY_HEADER);
+        }
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + WebSocketUtils.generateSecWebSocketAccept(key) + "\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String readLine(final DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.readUnsignedByte()) != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
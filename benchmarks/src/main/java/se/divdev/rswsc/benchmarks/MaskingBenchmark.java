@@ -0,0 +1,56 @@
+package se.divdev.rswsc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.divdev.rswsc.OpCode;
+import se.divdev.rswsc.WebSocketFrame;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Masking of payloads through {@link WebSocketFrame#process(byte[], int)}, which copies the payload and
+ * masks the copy, starting both at the beginning of the mask and within it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskingBenchmark {
+
+    @Param({"125", "4096", "65536", "1048576"})
+    public int payloadSize;
+
+    private byte[] payload;
+
+    private WebSocketFrame frame;
+
+    @Setup
+    public void setup() throws IOException {
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        frame = WebSocketFrame.outgoing(OpCode.BINARY);
+    }
+
+    @Benchmark
+    public byte[] aligned() {
+        return frame.process(payload, 0);
+    }
+
+    @Benchmark
+    public byte[] unaligned() {
+        return frame.process(payload, 3);
+    }
+}
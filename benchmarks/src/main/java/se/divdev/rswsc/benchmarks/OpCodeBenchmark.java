@@ -0,0 +1,45 @@
+package se.divdev.rswsc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.divdev.rswsc.OpCode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of every possible opcode value, known and unknown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpCodeBenchmark {
+
+    private static final int VALUES = 16;
+
+    public byte value;
+
+    @Benchmark
+    public OpCode fromValue() {
+        // Walks all values so the lookup cannot be folded into a constant
+        value = (byte) ((value + 1) & (VALUES - 1));
+        return OpCode.fromValue(value);
+    }
+
+    @Benchmark
+    public void fromAllValues(final Blackhole blackhole) {
+        for (byte i = 0; i < VALUES; i++) {
+            blackhole.consume(OpCode.fromValue(i));
+        }
+    }
+}
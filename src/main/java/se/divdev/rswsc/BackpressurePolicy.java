@@ -0,0 +1,23 @@
+package se.divdev.rswsc;
+
+/**
+ * What sending a new data message does while more than the high watermark of bytes is waiting to be written.
+ * Control frames and the remaining fragments of a message already being sent are never rejected.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Queue the message anyway, writability is only signalled.
+     */
+    NONE,
+    /**
+     * Block the sending thread until the queue has drained below the low watermark. Sends from the event
+     * loop thread are never blocked, since that thread is the one doing the writing, and neither are sends
+     * from event handlers, whose threads the writer or the read loop may need. A handler sending while
+     * another thread waits in the middle of a message fails with an {@link java.io.IOException} instead.
+     */
+    BLOCK,
+    /**
+     * Return an already failed future without queueing anything.
+     */
+    FAIL
+}
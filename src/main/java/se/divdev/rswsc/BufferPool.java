@@ -0,0 +1,183 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size-classed pool of heap or direct buffers.
+ * <p>
+ * Buffers are handed out as {@link PooledBuffer}s with a reference count of one, and go back to the pool
+ * when the count drops to zero. Requests are rounded up to the next power of two between
+ * {@value #MIN_POOLED_SIZE} bytes and {@value #MAX_POOLED_SIZE} bytes, larger requests are served by plain
+ * unpooled buffers.
+ * <p>
+ * With leak detection enabled (system property {@code rswsc.buffer.leakDetection=true}) every buffer
+ * remembers where it was acquired, and buffers garbage collected without being released are logged.
+ */
+public class BufferPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
+
+    static final int MIN_POOLED_SIZE = 256;
+
+    static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_BYTES_PER_CLASS = 16 * 1024 * 1024;
+
+    private static final int MAX_BUFFERS_PER_CLASS = 1024;
+
+    private static final boolean LEAK_DETECTION = Boolean.getBoolean("rswsc.buffer.leakDetection");
+
+    private static final BufferPool HEAP = new BufferPool(false);
+
+    private static final BufferPool DIRECT = new BufferPool(true);
+
+    private final boolean direct;
+
+    private final boolean leakDetection;
+
+    private final SizeClass[] sizeClasses;
+
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+
+    private final Set<LeakTracker> trackers = ConcurrentHashMap.newKeySet();
+
+    public BufferPool(final boolean direct) {
+        this(direct, LEAK_DETECTION);
+    }
+
+    public BufferPool(final boolean direct, final boolean leakDetection) {
+        this.direct = direct;
+        this.leakDetection = leakDetection;
+        int numberOfClasses = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE) + 1;
+        this.sizeClasses = new SizeClass[numberOfClasses];
+        for (int i = 0; i < numberOfClasses; i++) {
+            int size = MIN_POOLED_SIZE << i;
+            sizeClasses[i] = new SizeClass(size, Math.min(MAX_BUFFERS_PER_CLASS, Math.max(1, MAX_BYTES_PER_CLASS / size)));
+        }
+    }
+
+    /**
+     * Shared pool of heap buffers
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * Shared pool of direct buffers
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Borrow a cleared buffer with at least the given capacity. Its limit is set to the requested capacity.
+     */
+    public PooledBuffer acquire(final int capacity) {
+        if (leakDetection) {
+            reportLeaks();
+        }
+        SizeClass sizeClass = sizeClassFor(capacity);
+        PooledBuffer buffer = sizeClass == null ? null : sizeClass.poll();
+        if (buffer == null) {
+            int size = sizeClass == null ? capacity : sizeClass.size;
+            buffer = new PooledBuffer(this, sizeClass, direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size));
+        }
+        buffer.acquired(capacity);
+        if (leakDetection) {
+            buffer.tracker = new LeakTracker(buffer, leakQueue);
+        }
+        return buffer;
+    }
+
+    private SizeClass sizeClassFor(final int capacity) {
+        if (capacity > MAX_POOLED_SIZE) {
+            return null;
+        }
+        int size = Math.max(MIN_POOLED_SIZE, capacity);
+        int index = 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+        return sizeClasses[index];
+    }
+
+    /**
+     * Lend out a buffer the pool does not own, dropped instead of pooled once released
+     */
+    PooledBuffer wrap(final ByteBuffer buffer) {
+        PooledBuffer wrapped = new PooledBuffer(this, null, buffer);
+        wrapped.acquired(buffer.capacity());
+        return wrapped;
+    }
+
+    void released(final PooledBuffer buffer) {
+        if (buffer.sizeClass != null) {
+            buffer.sizeClass.offer(buffer);
+        }
+    }
+
+    private void reportLeaks() {
+        LeakTracker tracker;
+        while ((tracker = (LeakTracker) leakQueue.poll()) != null) {
+            if (trackers.remove(tracker)) {
+                LOGGER.error("Buffer of {} bytes was garbage collected without being released, acquired at:", tracker.capacity, tracker.acquiredAt);
+            }
+        }
+    }
+
+    static final class SizeClass {
+
+        final int size;
+
+        private final PooledBuffer[] buffers;
+
+        private int count;
+
+        private SizeClass(final int size, final int maxBuffers) {
+            this.size = size;
+            this.buffers = new PooledBuffer[maxBuffers];
+        }
+
+        private synchronized PooledBuffer poll() {
+            if (count == 0) {
+                return null;
+            }
+            PooledBuffer buffer = buffers[--count];
+            buffers[count] = null;
+            return buffer;
+        }
+
+        private synchronized void offer(final PooledBuffer buffer) {
+            if (count < buffers.length) {
+                buffers[count++] = buffer;
+            }
+        }
+    }
+
+    final class LeakTracker extends WeakReference<PooledBuffer> {
+
+        private final int capacity;
+
+        private final Throwable acquiredAt = new Throwable("Buffer acquired");
+
+        private LeakTracker(final PooledBuffer buffer, final ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            this.capacity = buffer.buffer().capacity();
+            trackers.add(this);
+        }
+
+        void close() {
+            trackers.remove(this);
+            clear();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package se.divdev.rswsc;
+
+/**
+ * Receives measurements from a client, configured with {@link RswsClientBuilder#withMetrics(ClientMetrics)}.
+ * <p>
+ * Methods are called on the threads reading, writing and dispatching, often once per frame, so they must be
+ * cheap, must not block and should not allocate. One instance may be shared by any number of clients.
+ * Every method does nothing by default.
+ */
+public interface ClientMetrics {
+
+    /**
+     * Records nothing, and lets the client skip taking timestamps
+     */
+    ClientMetrics NOOP = new ClientMetrics() {
+    };
+
+    /**
+     * A frame was read
+     *
+     * @param payloadBytes payload length of the frame as sent, before any decompression
+     */
+    default void frameIn(OpCode opCode, long payloadBytes) {
+    }
+
+    /**
+     * A frame was queued for writing
+     *
+     * @param frameBytes length of the encoded frame, header included
+     */
+    default void frameOut(OpCode opCode, long frameBytes) {
+    }
+
+    /**
+     * An incoming data message was read completely
+     */
+    default void messageIn(int fragments) {
+    }
+
+    /**
+     * Bytes waiting to be written, right after a frame was queued
+     */
+    default void outboundQueueDepth(long pendingBytes) {
+    }
+
+    /**
+     * Time from an event being read to its delivery to the handler starting, not recorded when events are
+     * delivered on the reading thread
+     */
+    default void dispatchLag(long nanos) {
+    }
+
+    /**
+     * Round trip time of an automatic ping, from sending it until its pong was read
+     */
+    default void pingRoundTrip(long nanos) {
+    }
+
+    /**
+     * Time from starting to connect until the handshake response was validated
+     */
+    default void handshake(long nanos) {
+    }
+}
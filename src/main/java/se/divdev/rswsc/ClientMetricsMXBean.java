@@ -0,0 +1,40 @@
+package se.divdev.rswsc;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link JmxClientMetrics}. Histograms are summarised as count, mean, max and
+ * percentiles, rounded to whole numbers.
+ */
+public interface ClientMetricsMXBean {
+
+    /**
+     * Frames read, by opcode name
+     */
+    Map<String, Long> getFramesIn();
+
+    /**
+     * Payload bytes read, by opcode name
+     */
+    Map<String, Long> getBytesIn();
+
+    /**
+     * Frames queued for writing, by opcode name
+     */
+    Map<String, Long> getFramesOut();
+
+    /**
+     * Frame bytes queued for writing, by opcode name
+     */
+    Map<String, Long> getBytesOut();
+
+    Map<String, Long> getFragmentsPerMessage();
+
+    Map<String, Long> getOutboundQueueBytes();
+
+    Map<String, Long> getDispatchLagNanos();
+
+    Map<String, Long> getHandshakeNanos();
+
+    Map<String, Long> getPingRoundTripNanos();
+}
@@ -0,0 +1,171 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to a host by racing its addresses, in the style of Happy Eyeballs (RFC 8305).
+ * <p>
+ * Every address the host resolves to is tried, alternating between IPv6 and IPv4. A new attempt starts
+ * whenever the previous one has not connected within the attempt delay, or as soon as it fails. The first
+ * attempt to connect wins and the others are abandoned, so an address that drops packets costs no more
+ * than the attempt delay.
+ */
+final class Connector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Connector.class);
+
+    private Connector() {
+    }
+
+    /**
+     * @param attemptDelayNanos how long an attempt runs alone before the next one starts
+     * @param timeoutNanos      how long to keep trying in total, 0 for as long as attempts are left
+     * @return a connected channel in blocking mode
+     */
+    static SocketChannel connect(final String host, final int port, final long attemptDelayNanos, final long timeoutNanos) throws IOException {
+        long started = System.nanoTime();
+        return connect(host, InetAddress.getAllByName(host), port, started, attemptDelayNanos, timeoutNanos);
+    }
+
+    /**
+     * Race addresses already resolved, in the order given apart from alternating between address families
+     *
+     * @see #connect(String, int, long, long)
+     */
+    static SocketChannel connect(final InetAddress[] resolved, final int port, final long attemptDelayNanos, final long timeoutNanos) throws IOException {
+        if (resolved.length == 0) {
+            throw new IllegalArgumentException("No addresses to connect to");
+        }
+        return connect(Arrays.toString(resolved), resolved, port, System.nanoTime(), attemptDelayNanos, timeoutNanos);
+    }
+
+    private static SocketChannel connect(final String host, final InetAddress[] resolved, final int port, final long started,
+                                         final long attemptDelayNanos, final long timeoutNanos) throws IOException {
+        List<InetAddress> addresses = interleave(resolved);
+        ConnectException failure = new ConnectException("Could not connect to " + host + ":" + port);
+        List<SocketChannel> attempts = new ArrayList<>();
+        SocketChannel connected = null;
+        try (Selector selector = Selector.open()) {
+            int next = 0;
+            int pending = 0;
+            long nextAttemptAt = started;
+            while (connected == null) {
+                long now = System.nanoTime();
+                if (next < addresses.size() && (pending == 0 || now - nextAttemptAt >= 0)) {
+                    InetSocketAddress address = new InetSocketAddress(addresses.get(next++), port);
+                    nextAttemptAt = now + attemptDelayNanos;
+                    SocketChannel channel = SocketChannel.open();
+                    attempts.add(channel);
+                    try {
+                        channel.configureBlocking(false);
+                        if (channel.connect(address)) {
+                            connected = channel;
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT, address);
+                            pending++;
+                        }
+                    } catch (IOException e) {
+                        failed(failure, address, e);
+                        IO.close(channel);
+                        nextAttemptAt = now;
+                    }
+                    continue;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                long wait = next < addresses.size() ? nextAttemptAt - now : Long.MAX_VALUE;
+                if (timeoutNanos > 0) {
+                    long remaining = started + timeoutNanos - now;
+                    if (remaining <= 0) {
+                        SocketTimeoutException timeout = new SocketTimeoutException("Could not connect to " + host + ":" + port
+                                + " within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+                        for (Throwable suppressed : failure.getSuppressed()) {
+                            timeout.addSuppressed(suppressed);
+                        }
+                        throw timeout;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                if (wait == Long.MAX_VALUE) {
+                    selector.select();
+                } else {
+                    // Rounded up, as select(0) would wait forever
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999_999)));
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            connected = channel;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        failed(failure, (InetSocketAddress) key.attachment(), e);
+                        key.cancel();
+                        IO.close(channel);
+                        pending--;
+                        // Try the next address right away rather than after the delay
+                        nextAttemptAt = System.nanoTime();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SocketChannel attempt : attempts) {
+                if (attempt != connected) {
+                    IO.close(attempt);
+                }
+            }
+        }
+        // Deregistered by closing the selector, so it can block again
+        connected.configureBlocking(true);
+        LOGGER.debug("Connected to {} after {} attempts", connected.getRemoteAddress(), attempts.size());
+        return connected;
+    }
+
+    private static void failed(final ConnectException failure, final InetSocketAddress address, final IOException cause) {
+        LOGGER.debug("Could not connect to {}: {}", address, cause.toString());
+        failure.addSuppressed(cause);
+    }
+
+    /**
+     * Addresses in resolved order, but alternating between address families, starting with the first one
+     */
+    static List<InetAddress> interleave(final InetAddress[] resolved) {
+        List<InetAddress> preferred = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        boolean firstIsV6 = resolved.length > 0 && resolved[0] instanceof Inet6Address;
+        for (InetAddress address : resolved) {
+            (address instanceof Inet6Address == firstIsV6 ? preferred : other).add(address);
+        }
+        if (other.isEmpty()) {
+            return Arrays.asList(resolved);
+        }
+        List<InetAddress> interleaved = new ArrayList<>(resolved.length);
+        for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+            if (i < preferred.size()) {
+                interleaved.add(preferred.get(i));
+            }
+            if (i < other.size()) {
+                interleaved.add(other.get(i));
+            }
+        }
+        return interleaved;
+    }
+}
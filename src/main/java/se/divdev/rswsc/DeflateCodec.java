@@ -0,0 +1,343 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Negotiated permessage-deflate extension (RFC 7692) of one connection.
+ * <p>
+ * Incoming messages are inflated frame by frame into small chunks as the compressed bytes arrive, never
+ * as a whole. Outgoing messages are deflated into frames of at most the frame payload size, with the
+ * trailing {@code 00 00 FF FF} of the sync flush removed as the extension requires.
+ * <p>
+ * Deflaters and inflaters are borrowed from shared pools. With context takeover a connection keeps its
+ * instance until closed, without it the instance goes back to the pool after every message.
+ */
+class DeflateCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeflateCodec.class);
+
+    static final String EXTENSION_NAME = "permessage-deflate";
+
+    private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int MAX_WINDOW_BITS = 15;
+
+    private static final int INFLATE_CHUNK_SIZE = 16 * 1024;
+
+    private static final Pool<Deflater> DEFLATERS = new Pool<>(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true), Deflater::reset, Deflater::end);
+
+    private static final Pool<Inflater> INFLATERS = new Pool<>(() -> new Inflater(true), Inflater::reset, Inflater::end);
+
+    interface FrameSink {
+        /**
+         * @param first true for the first frame of the message, the one carrying RSV1
+         * @param last  true for the final frame of the message
+         */
+        void onFrame(byte[] payload, int length, boolean first, boolean last) throws IOException;
+    }
+
+    interface ChunkSink {
+        void onChunk(byte[] data, boolean last) throws IOException;
+    }
+
+    private final boolean compressOutgoing;
+
+    private final boolean clientNoContextTakeover;
+
+    private final boolean serverNoContextTakeover;
+
+    private final int compressionThreshold;
+
+    private final int compressionLevel;
+
+    private final int maxFramePayload;
+
+    // A lock rather than a monitor, so waiting for it does not pin the carrier of a virtual thread
+    private final ReentrantLock deflateLock = new ReentrantLock();
+
+    // Outgoing side, guarded by deflateLock
+    private Deflater deflater;
+
+    private byte[] deflateOutput;
+
+    private boolean closed;
+
+    // Incoming side, only touched by the thread reading the connection
+    private Inflater inflater;
+
+    private byte[] inflateOutput;
+
+    private byte[] inflateInput;
+
+    // Last inflated chunk, held back until it is known whether more follow
+    private byte[] heldChunk;
+
+    private DeflateCodec(final boolean compressOutgoing,
+                         final boolean clientNoContextTakeover,
+                         final boolean serverNoContextTakeover,
+                         final int compressionThreshold,
+                         final int compressionLevel,
+                         final int maxFramePayload) {
+        this.compressOutgoing = compressOutgoing;
+        this.clientNoContextTakeover = clientNoContextTakeover;
+        this.serverNoContextTakeover = serverNoContextTakeover;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+        this.maxFramePayload = maxFramePayload;
+    }
+
+    /**
+     * Validate the extension accepted by the server against what was offered.
+     *
+     * @param response        value of the {@code Sec-WebSocket-Extensions} response header
+     * @param maxFramePayload largest payload of an outgoing compressed frame
+     */
+    static DeflateCodec negotiate(final PerMessageDeflate config, final String response, final int maxFramePayload) throws ProtocolException {
+        String[] extensions = response.split(",");
+        if (extensions.length != 1) {
+            throw new ProtocolException("Server accepted more extensions than offered: " + response);
+        }
+        String[] parameters = extensions[0].split(";");
+        if (!parameters[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+            throw new ProtocolException("Server accepted an extension that was not offered: " + response);
+        }
+        boolean clientNoContextTakeover = config.clientNoContextTakeover;
+        boolean serverNoContextTakeover = false;
+        int clientMaxWindowBits = MAX_WINDOW_BITS;
+        Set<String> seen = new HashSet<>();
+        for (int i = 1; i < parameters.length; i++) {
+            String[] parameter = parameters[i].split("=", 2);
+            String name = parameter[0].trim().toLowerCase();
+            String value = parameter.length > 1 ? parameter[1].trim().replace("\"", "") : null;
+            if (!seen.add(name)) {
+                throw new ProtocolException("Duplicate extension parameter: " + name);
+            }
+            switch (name) {
+                case "client_no_context_takeover":
+                    clientNoContextTakeover = true;
+                    break;
+                case "server_no_context_takeover":
+                    serverNoContextTakeover = true;
+                    break;
+                case "client_max_window_bits":
+                    clientMaxWindowBits = value == null ? MAX_WINDOW_BITS : windowBits(name, value);
+                    break;
+                case "server_max_window_bits":
+                    int serverMaxWindowBits = windowBits(name, value);
+                    if (config.serverMaxWindowBits > 0 && serverMaxWindowBits > config.serverMaxWindowBits) {
+                        throw new ProtocolException("Server window larger than offered: " + serverMaxWindowBits);
+                    }
+                    break;
+                default:
+                    throw new ProtocolException("Unknown extension parameter: " + name);
+            }
+        }
+        boolean compressOutgoing = clientMaxWindowBits == MAX_WINDOW_BITS;
+        if (!compressOutgoing) {
+            LOGGER.info("Server limits client window to {} bits, sending uncompressed", clientMaxWindowBits);
+        }
+        return new DeflateCodec(compressOutgoing, clientNoContextTakeover, serverNoContextTakeover,
+                config.compressionThreshold, config.compressionLevel, maxFramePayload);
+    }
+
+    private static int windowBits(final String name, final String value) throws ProtocolException {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= 8 && bits <= MAX_WINDOW_BITS) {
+                return bits;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new ProtocolException("Invalid " + name + ": " + value);
+    }
+
+    boolean shouldCompress(final int length) {
+        return compressOutgoing && length >= compressionThreshold;
+    }
+
+    /**
+     * Deflate a whole message into frames handed to the sink, which is called while holding the deflater
+     * so that messages reach the connection in the order they were compressed.
+     */
+    void deflate(final byte[] payload, final int offset, final int length, final FrameSink sink) throws IOException {
+        deflateLock.lock();
+        try {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (deflater == null) {
+                deflater = DEFLATERS.acquire();
+                deflater.setLevel(compressionLevel);
+            }
+            if (deflateOutput == null) {
+                deflateOutput = new byte[maxFramePayload + TAIL.length];
+            }
+            byte[] output = deflateOutput;
+            deflater.setInput(payload, offset, length);
+            boolean first = true;
+            int held = 0;
+            while (true) {
+                int total = held + deflater.deflate(output, held, output.length - held, Deflater.SYNC_FLUSH);
+                // The flush is complete once the deflater leaves room to spare
+                boolean last = total < output.length;
+                sink.onFrame(output, total - TAIL.length, first, last);
+                if (last) {
+                    break;
+                }
+                // Carry what may be the start of the tail over to the next frame
+                System.arraycopy(output, total - TAIL.length, output, 0, TAIL.length);
+                held = TAIL.length;
+                first = false;
+            }
+            if (clientNoContextTakeover) {
+                DEFLATERS.release(deflater);
+                deflater = null;
+            }
+        } finally {
+            deflateLock.unlock();
+        }
+    }
+
+    /**
+     * Inflate the next part of a compressed message, handing the sink whatever it decompresses to. The
+     * sink sees the last chunk of the message flagged as such, an empty one if nothing is left.
+     */
+    void inflate(final ByteBuffer payload, final boolean endOfMessage, final ChunkSink sink) throws IOException {
+        if (inflater == null) {
+            inflater = INFLATERS.acquire();
+            inflateOutput = inflateOutput == null ? new byte[INFLATE_CHUNK_SIZE] : inflateOutput;
+        }
+        if (payload.hasArray()) {
+            inflate(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), sink);
+            payload.position(payload.limit());
+        } else {
+            inflateInput = inflateInput == null ? new byte[INFLATE_CHUNK_SIZE] : inflateInput;
+            while (payload.hasRemaining()) {
+                int length = Math.min(payload.remaining(), inflateInput.length);
+                payload.get(inflateInput, 0, length);
+                inflate(inflateInput, 0, length, sink);
+            }
+        }
+        if (endOfMessage) {
+            inflate(TAIL, 0, TAIL.length, sink);
+            byte[] last = heldChunk == null ? EMPTY : heldChunk;
+            heldChunk = null;
+            if (serverNoContextTakeover || inflater.finished()) {
+                INFLATERS.release(inflater);
+                inflater = null;
+            }
+            sink.onChunk(last, true);
+        }
+    }
+
+    private void inflate(final byte[] input, final int offset, final int length, final ChunkSink sink) throws IOException {
+        if (inflater.finished()) {
+            // A final deflate block ends the stream, only the tail may follow it
+            return;
+        }
+        inflater.setInput(input, offset, length);
+        try {
+            int inflated;
+            while ((inflated = inflater.inflate(inflateOutput)) > 0) {
+                if (heldChunk != null) {
+                    sink.onChunk(heldChunk, false);
+                }
+                heldChunk = Arrays.copyOf(inflateOutput, inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Invalid compressed data: " + e.getMessage());
+        }
+        if (inflater.needsDictionary()) {
+            throw new ProtocolException("Invalid compressed data: preset dictionary");
+        }
+    }
+
+    /**
+     * Return the deflater to its pool, may be called from any thread
+     */
+    void closeOutbound() {
+        deflateLock.lock();
+        try {
+            closed = true;
+            if (deflater != null) {
+                DEFLATERS.release(deflater);
+                deflater = null;
+            }
+        } finally {
+            deflateLock.unlock();
+        }
+    }
+
+    /**
+     * Return the inflater to its pool, only to be called by the thread reading the connection
+     */
+    void closeInbound() {
+        if (inflater != null) {
+            INFLATERS.release(inflater);
+            inflater = null;
+        }
+        heldChunk = null;
+    }
+
+    private static final class Pool<T> {
+
+        private static final int MAX_IDLE = 64;
+
+        private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private final Supplier<T> factory;
+
+        private final Consumer<T> reset;
+
+        private final Consumer<T> end;
+
+        private Pool(final Supplier<T> factory, final Consumer<T> reset, final Consumer<T> end) {
+            this.factory = factory;
+            this.reset = reset;
+            this.end = end;
+        }
+
+        T acquire() {
+            T instance = idle.poll();
+            if (instance == null) {
+                return factory.get();
+            }
+            idleCount.decrementAndGet();
+            return instance;
+        }
+
+        void release(final T instance) {
+            reset.accept(instance);
+            if (idleCount.incrementAndGet() <= MAX_IDLE) {
+                idle.offer(instance);
+            } else {
+                idleCount.decrementAndGet();
+                // Frees the native zlib memory right away rather than on collection
+                end.accept(instance);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package se.divdev.rswsc;
+
+/**
+ * How incoming events reach the {@link WebSocketEvent} handler.
+ */
+public enum DispatchMode {
+    /**
+     * Events are queued in a bounded ring buffer per connection and delivered one at a time, in the order
+     * they were read, on the client's executor. A full queue stalls reading until the handler catches up.
+     */
+    ORDERED,
+    /**
+     * Events are delivered inline on the thread reading the connection. Lowest latency, but a slow handler
+     * holds up reading, and on an event loop every other connection served by the same loop.
+     */
+    CALLER_RUNS
+}
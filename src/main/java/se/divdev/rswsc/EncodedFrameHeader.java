@@ -0,0 +1,53 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Header of an encoded outgoing frame, read from the bytes starting at the position of its buffer.
+ */
+final class EncodedFrameHeader implements FrameHeader {
+
+    private final byte firstByte;
+
+    private final byte secondByte;
+
+    private final long payloadSize;
+
+    EncodedFrameHeader(final ByteBuffer frame) {
+        int start = frame.position();
+        this.firstByte = frame.get(start);
+        this.secondByte = frame.get(start + 1);
+        int length = secondByte & 0x7F;
+        this.payloadSize = length == 126 ? frame.getShort(start + 2) & 0xFFFF : length == 127 ? frame.getLong(start + 2) : length;
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.fromValue((byte) (firstByte & 0x0F));
+    }
+
+    @Override
+    public boolean isFinalFrame() {
+        return (firstByte & 0x80) != 0;
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return (firstByte & FrameEncoder.RSV1) != 0;
+    }
+
+    @Override
+    public boolean isMasked() {
+        return (secondByte & 0x80) != 0;
+    }
+
+    @Override
+    public long payloadSize() {
+        return payloadSize;
+    }
+
+    @Override
+    public long payloadOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,363 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-connection delivery of incoming events, in order and never concurrently.
+ * <p>
+ * In {@link DispatchMode#ORDERED} mode events go through a single producer, single consumer ring buffer.
+ * The producer is the thread reading the connection, the consumer is at most one drain task at a time on
+ * the executor, which keeps going for as long as there are events, so a burst of fragments costs one task.
+ * <p>
+ * The reading thread never waits for the handler. When the ring is full, events spill over into an
+ * unbounded queue and the read gate is held shut, so no more is read until the handler has caught up with
+ * everything that spilled over. Only the rest of the read already in hand ever spills over.
+ */
+class EventDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventDispatcher.class);
+
+    interface Sink {
+        void deliver(OpCode opCode, boolean finalFragment, byte[] payload);
+
+        /**
+         * Deliver a fragment held in a buffer, only valid until this returns
+         */
+        default void deliver(OpCode opCode, boolean finalFragment, ByteBuffer payload) {
+        }
+
+        /**
+         * Deliver a whole message, released by the dispatcher once this returns
+         */
+        default void deliver(WebSocketMessage message) {
+        }
+    }
+
+    private static final class Event {
+        OpCode opCode;
+        boolean finalFragment;
+        byte[] payload;
+        ByteBuffer buffer;
+        PooledBuffer chunk;
+        WebSocketMessage message;
+        Runnable task;
+        long publishedAt;
+        // Publication order across the ring and the overflow
+        long order;
+    }
+
+    private final DispatchMode mode;
+
+    private final Executor executor;
+
+    private final Sink sink;
+
+    private final ClientMetrics metrics;
+
+    // Timestamps are only taken when someone is recording the lag
+    private final boolean timed;
+
+    private final Event[] events;
+
+    private final int indexMask;
+
+    // Next sequence to publish, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // Events published so far, ring and overflow alike, only touched by the producer
+    private long published;
+
+    // Next sequence to deliver, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // Events published while the ring was full, and every one after them until the consumer has caught up
+    private final Queue<Event> overflow = new ConcurrentLinkedQueue<>();
+
+    // Orders holding and releasing the read gate between the reading thread and the consumer
+    private final ReentrantLock backlogLock = new ReentrantLock();
+
+    // Guarded by backlogLock, read without it to skip taking the lock
+    private volatile boolean backlogged;
+
+    // Held shut while events spill over, null to spill over without pausing reads
+    private final ReadGate readGate;
+
+    private final Runnable drainTask = this::drain;
+
+    // Marks threads running handlers, where a send must not wait for the writer, see RswsClient
+    private static final ThreadLocal<Boolean> HANDLER_THREAD = new ThreadLocal<>();
+
+    EventDispatcher(final DispatchMode mode, final int capacity, final Executor executor, final Sink sink) {
+        this(mode, capacity, executor, sink, ClientMetrics.NOOP, null);
+    }
+
+    EventDispatcher(final DispatchMode mode,
+                    final int capacity,
+                    final Executor executor,
+                    final Sink sink,
+                    final ClientMetrics metrics,
+                    final ReadGate readGate) {
+        this.mode = mode;
+        this.readGate = readGate;
+        this.executor = executor;
+        this.sink = sink;
+        this.metrics = metrics;
+        this.timed = mode == DispatchMode.ORDERED && metrics != ClientMetrics.NOOP;
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.events = new Event[mode == DispatchMode.ORDERED ? size : 0];
+        this.indexMask = size - 1;
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new Event();
+        }
+    }
+
+    /**
+     * Hand an event over for delivery, only to be called by the thread reading the connection
+     */
+    void dispatch(final OpCode opCode, final boolean finalFragment, final byte[] payload) {
+        if (mode == DispatchMode.CALLER_RUNS) {
+            deliver(opCode, finalFragment, payload);
+            return;
+        }
+        publish(opCode, finalFragment, payload, null, null, null, null);
+    }
+
+    /**
+     * Run the task in order with the events dispatched before it
+     */
+    void dispatch(final Runnable task) {
+        if (mode == DispatchMode.CALLER_RUNS) {
+            deliver(task);
+            return;
+        }
+        publish(null, true, null, null, null, null, task);
+    }
+
+    /**
+     * Hand a fragment held in a buffer over for delivery, taking ownership of the chunk holding it
+     *
+     * @param chunk pooled buffer released once delivered, null if the buffer is not pooled
+     */
+    void dispatch(final OpCode opCode, final boolean finalFragment, final ByteBuffer buffer, final PooledBuffer chunk) {
+        if (mode == DispatchMode.CALLER_RUNS) {
+            deliver(opCode, finalFragment, buffer, chunk);
+            return;
+        }
+        publish(opCode, finalFragment, null, buffer, chunk, null, null);
+    }
+
+    /**
+     * Hand a whole message over for delivery, taking ownership of it
+     */
+    void dispatch(final WebSocketMessage message) {
+        if (mode == DispatchMode.CALLER_RUNS) {
+            deliver(message);
+            return;
+        }
+        publish(message.opCode(), true, null, null, null, message, null);
+    }
+
+    private void publish(final OpCode opCode, final boolean finalFragment, final byte[] payload,
+                         final ByteBuffer buffer, final PooledBuffer chunk, final WebSocketMessage message, final Runnable task) {
+        long sequence = tail.get();
+        boolean full = sequence - head.get() >= events.length;
+        if (full || !overflow.isEmpty()) {
+            // Behind everything still spilled over, so events stay in order
+            Event event = new Event();
+            fill(event, opCode, finalFragment, payload, buffer, chunk, message, task);
+            if (full && readGate != null && !backlogged) {
+                // Held together with the offer, so the drain cannot see the spilled event without the backlog
+                backlogLock.lock();
+                try {
+                    backlogged = true;
+                    readGate.backlog(true);
+                    overflow.offer(event);
+                } finally {
+                    backlogLock.unlock();
+                }
+            } else {
+                overflow.offer(event);
+            }
+        } else {
+            fill(events[(int) (sequence & indexMask)], opCode, finalFragment, payload, buffer, chunk, message, task);
+            tail.lazySet(sequence + 1);
+        }
+
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void fill(final Event event, final OpCode opCode, final boolean finalFragment, final byte[] payload,
+                      final ByteBuffer buffer, final PooledBuffer chunk, final WebSocketMessage message, final Runnable task) {
+        event.opCode = opCode;
+        event.finalFragment = finalFragment;
+        event.payload = payload;
+        event.buffer = buffer;
+        event.chunk = chunk;
+        event.message = message;
+        event.task = task;
+        event.publishedAt = timed ? System.nanoTime() : 0;
+        event.order = published++;
+    }
+
+    /**
+     * Whether the current thread runs handlers, and so may be needed for the client to write or read
+     */
+    static boolean isHandlerThread() {
+        return HANDLER_THREAD.get() != null;
+    }
+
+    /**
+     * Mark the current thread as running handlers, returning false if it already was
+     */
+    static boolean markHandlerThread() {
+        if (HANDLER_THREAD.get() != null) {
+            return false;
+        }
+        HANDLER_THREAD.set(Boolean.TRUE);
+        return true;
+    }
+
+    static void unmarkHandlerThread(final boolean marked) {
+        if (marked) {
+            HANDLER_THREAD.remove();
+        }
+    }
+
+    private void drain() {
+        boolean marked = markHandlerThread();
+        try {
+            drainMarked();
+        } finally {
+            unmarkHandlerThread(marked);
+        }
+    }
+
+    private void drainMarked() {
+        do {
+            long sequence = head.get();
+            while (true) {
+                long available = tail.get();
+                while (sequence < available) {
+                    Event event = events[(int) (sequence & indexMask)];
+                    OpCode opCode = event.opCode;
+                    boolean finalFragment = event.finalFragment;
+                    byte[] payload = event.payload;
+                    ByteBuffer buffer = event.buffer;
+                    PooledBuffer chunk = event.chunk;
+                    WebSocketMessage message = event.message;
+                    Runnable task = event.task;
+                    long publishedAt = event.publishedAt;
+                    event.payload = null;
+                    event.buffer = null;
+                    event.chunk = null;
+                    event.message = null;
+                    event.task = null;
+                    head.lazySet(++sequence);
+                    deliver(opCode, finalFragment, payload, buffer, chunk, message, task, publishedAt);
+                }
+                Event spilled = overflow.peek();
+                if (spilled == null) {
+                    break;
+                }
+                // Ring events published before the spilled one are visible by now and go first
+                if (sequence < tail.get() && events[(int) (sequence & indexMask)].order < spilled.order) {
+                    continue;
+                }
+                overflow.poll();
+                deliver(spilled.opCode, spilled.finalFragment, spilled.payload, spilled.buffer, spilled.chunk, spilled.message,
+                        spilled.task, spilled.publishedAt);
+            }
+            if (backlogged) {
+                releaseBacklog();
+            }
+            draining.set(false);
+            // An event or backlog published after the last check but before clearing the flag would otherwise be stranded
+        } while ((head.get() < tail.get() || !overflow.isEmpty() || backlogged) && draining.compareAndSet(false, true));
+    }
+
+    private void releaseBacklog() {
+        backlogLock.lock();
+        try {
+            // Checked under the lock, as the reading thread spills over before holding the gate
+            if (backlogged && overflow.isEmpty()) {
+                backlogged = false;
+                readGate.backlog(false);
+            }
+        } finally {
+            backlogLock.unlock();
+        }
+    }
+
+    private void deliver(final OpCode opCode, final boolean finalFragment, final byte[] payload, final ByteBuffer buffer,
+                         final PooledBuffer chunk, final WebSocketMessage message, final Runnable task, final long publishedAt) {
+        if (timed) {
+            metrics.dispatchLag(System.nanoTime() - publishedAt);
+        }
+        if (task != null) {
+            deliver(task);
+        } else if (message != null) {
+            deliver(message);
+        } else if (buffer != null) {
+            deliver(opCode, finalFragment, buffer, chunk);
+        } else {
+            deliver(opCode, finalFragment, payload);
+        }
+    }
+
+    private void deliver(final OpCode opCode, final boolean finalFragment, final byte[] payload) {
+        try {
+            sink.deliver(opCode, finalFragment, payload);
+        } catch (Exception e) {
+            LOGGER.error("Error while dispatching data", e);
+        }
+    }
+
+    private void deliver(final OpCode opCode, final boolean finalFragment, final ByteBuffer buffer, final PooledBuffer chunk) {
+        try {
+            sink.deliver(opCode, finalFragment, buffer);
+        } catch (Exception e) {
+            LOGGER.error("Error while dispatching data", e);
+        } finally {
+            if (chunk != null) {
+                chunk.release();
+            }
+        }
+    }
+
+    private void deliver(final Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            LOGGER.error("Error while dispatching task", e);
+        }
+    }
+
+    private void deliver(final WebSocketMessage message) {
+        try {
+            sink.deliver(message);
+        } catch (Exception e) {
+            LOGGER.error("Error while dispatching message", e);
+        } finally {
+            message.release();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package se.divdev.rswsc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of non-blocking event loops that can be shared by any number of {@link RswsClient}s.
+ * <p>
+ * Connections attached through {@link RswsClientBuilder#withEventLoopGroup(EventLoopGroup)} are spread
+ * round-robin over the loops, so the number of threads follows the number of loops rather than the
+ * number of connections. Only plain {@code ws} connections are attached, {@code wss} ones keep a blocking
+ * read loop on threads of their own.
+ */
+public class EventLoopGroup implements Closeable {
+
+    private final EventLoop[] eventLoops;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ExecutorService dispatcher;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EventLoopGroup(final int numberOfLoops) {
+        if (numberOfLoops <= 0) {
+            throw new IllegalArgumentException("Number of event loops must be positive: " + numberOfLoops);
+        }
+        this.eventLoops = new EventLoop[numberOfLoops];
+        try {
+            for (int i = 0; i < numberOfLoops; i++) {
+                eventLoops[i] = new EventLoop("rswsc-event-loop-" + i);
+            }
+        } catch (IOException exception) {
+            close();
+            throw new UncheckedIOException(exception);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rswsc-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger dispatchThreads = new AtomicInteger();
+        this.dispatcher = Executors.newFixedThreadPool(numberOfLoops, r -> {
+            Thread thread = new Thread(r, "rswsc-dispatch-" + dispatchThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    EventLoop next() {
+        return eventLoops[Math.abs(next.getAndIncrement() % eventLoops.length)];
+    }
+
+    /**
+     * Executor used by attached clients for delayed writes, a single thread that must never block
+     */
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Executor used by attached clients for event dispatch, one thread per loop, so a slow handler holds up
+     * no more than its own thread
+     */
+    ExecutorService dispatcher() {
+        return dispatcher;
+    }
+
+    boolean owns(final ExecutorService executor) {
+        return executor == scheduler || executor == dispatcher;
+    }
+
+    public int size() {
+        return eventLoops.length;
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.close();
+            }
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package se.divdev.rswsc;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for incoming frames.
+ * <p>
+ * Bytes are fed as they arrive from the transport, and every frame (or part of a frame) found in them is
+ * handed to a {@link FrameHandler} as a window of the very same buffer. Any number of frames can be
+ * decoded from one read, and headers split across reads are carried over to the next call.
+ * <p>
+ * The frame accessors ({@link #getOpCode()}, {@link #isFinalFrame()}, ...) describe the frame currently
+ * being delivered and are only valid inside the handler callback.
+ */
+class FrameDecoder implements FrameHeader {
+
+    interface FrameHandler {
+        /**
+         * @param frame      the decoder, describing the current frame
+         * @param payload    unmasked payload between position and limit, only valid during the call
+         * @param endOfFrame true if this is the last part of the current frame's payload
+         */
+        void onFrame(FrameDecoder frame, ByteBuffer payload, boolean endOfFrame) throws IOException;
+    }
+
+    private enum State {
+        HEADER,
+        EXTENDED_LENGTH,
+        MASK,
+        PAYLOAD
+    }
+
+    private State state = State.HEADER;
+
+    private int headerBytesRead;
+
+    private int extendedLengthBytes;
+
+    private byte firstByte;
+
+    private byte secondByte;
+
+    private long payloadLength;
+
+    private long payloadRemaining;
+
+    private long payloadOffset;
+
+    private int mask;
+
+    private int maskBytesRead;
+
+    private boolean compressionNegotiated;
+
+    /**
+     * Accept RSV1 on the first frame of data messages, marking them as compressed by permessage-deflate
+     */
+    void allowCompressedFrames() {
+        compressionNegotiated = true;
+    }
+
+    /**
+     * Decode as much as possible from the buffer. On return the buffer position is at its limit,
+     * anything not making up a complete frame has been remembered for the next call.
+     */
+    void decode(final ByteBuffer buffer, final FrameHandler handler) throws IOException {
+        while (true) {
+            switch (state) {
+                case HEADER:
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                    if (headerBytesRead == 0) {
+                        firstByte = buffer.get();
+                        headerBytesRead = 1;
+                        if (!buffer.hasRemaining()) {
+                            return;
+                        }
+                    }
+                    secondByte = buffer.get();
+                    headerBytesRead = 0;
+                    onHeader();
+                    break;
+                case EXTENDED_LENGTH:
+                    while (headerBytesRead < extendedLengthBytes) {
+                        if (!buffer.hasRemaining()) {
+                            return;
+                        }
+                        payloadLength = (payloadLength << 8) | (buffer.get() & 0xFF);
+                        headerBytesRead++;
+                    }
+                    headerBytesRead = 0;
+                    if (payloadLength < 0) {
+                        throw new ProtocolException("Invalid payload length: " + payloadLength);
+                    }
+                    state = isMasked() ? State.MASK : State.PAYLOAD;
+                    payloadRemaining = payloadLength;
+                    break;
+                case MASK:
+                    while (maskBytesRead < 4) {
+                        if (!buffer.hasRemaining()) {
+                            return;
+                        }
+                        mask = (mask << 8) | (buffer.get() & 0xFF);
+                        maskBytesRead++;
+                    }
+                    maskBytesRead = 0;
+                    state = State.PAYLOAD;
+                    break;
+                case PAYLOAD:
+                    if (payloadRemaining > 0 && !buffer.hasRemaining()) {
+                        return;
+                    }
+                    deliverPayload(buffer, handler);
+                    break;
+            }
+        }
+    }
+
+    private void onHeader() throws ProtocolException {
+        if (getOpCode() == OpCode.UNKNOWN) {
+            throw new ProtocolException("Unknown OpCode: " + String.format("0x%02X", getOpCodeValue()));
+        }
+        if ((firstByte & 0x30) != 0) {
+            throw new ProtocolException("Reserved bits set without a negotiated extension");
+        }
+        if (isCompressed() && (!compressionNegotiated || isControlFrame() || getOpCode() == OpCode.CONTINUATION)) {
+            throw new ProtocolException("Unexpected compressed frame: " + getOpCode());
+        }
+        int length = secondByte & 127;
+        if (isControlFrame() && (length > 125 || !isFinalFrame())) {
+            throw new ProtocolException("Invalid control frame: " + getOpCode());
+        }
+        extendedLengthBytes = length == 126 ? 2 : length == 127 ? 8 : 0;
+        payloadLength = extendedLengthBytes == 0 ? length : 0;
+        payloadRemaining = payloadLength;
+        if (extendedLengthBytes > 0) {
+            state = State.EXTENDED_LENGTH;
+        } else {
+            state = isMasked() ? State.MASK : State.PAYLOAD;
+        }
+    }
+
+    private void deliverPayload(final ByteBuffer buffer, final FrameHandler handler) throws IOException {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int chunk = (int) Math.min(limit - position, payloadRemaining);
+        long offset = payloadLength - payloadRemaining;
+        payloadOffset = offset;
+
+        if (isMasked()) {
+            Masking.mask(buffer, position, chunk, mask, offset);
+        }
+
+        payloadRemaining -= chunk;
+        boolean endOfFrame = payloadRemaining == 0;
+        if (endOfFrame) {
+            state = State.HEADER;
+        }
+
+        buffer.limit(position + chunk);
+        try {
+            handler.onFrame(this, buffer, endOfFrame);
+        } finally {
+            buffer.limit(limit);
+            buffer.position(position + chunk);
+        }
+    }
+
+    private byte getOpCodeValue() {
+        return (byte) (firstByte & 0x0F);
+    }
+
+    @Override
+    public OpCode getOpCode() {
+        return OpCode.fromValue(getOpCodeValue());
+    }
+
+    @Override
+    public boolean isFinalFrame() {
+        return BitUtils.getBit(firstByte, 7);
+    }
+
+    /**
+     * RSV1, set on the first frame of a message compressed by permessage-deflate
+     */
+    @Override
+    public boolean isCompressed() {
+        return BitUtils.getBit(firstByte, 6);
+    }
+
+    @Override
+    public boolean isMasked() {
+        return BitUtils.getBit(secondByte, 7);
+    }
+
+    boolean isControlFrame() {
+        return (getOpCodeValue() & 0x08) != 0;
+    }
+
+    @Override
+    public long payloadSize() {
+        return payloadLength;
+    }
+
+    /**
+     * Offset within the frame's payload of the part being delivered
+     */
+    @Override
+    public long payloadOffset() {
+        return payloadOffset;
+    }
+}
@@ -0,0 +1,94 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single pass encoder for outgoing frames.
+ * <p>
+ * Header, mask and masked payload are written straight into a caller supplied buffer, nothing is
+ * allocated per frame. The mask is passed as an int holding the four masking key bytes in network order.
+ */
+final class FrameEncoder {
+
+    /**
+     * 2 header bytes, 8 extended length bytes and 4 mask bytes
+     */
+    static final int MAX_HEADER_SIZE = 14;
+
+    /**
+     * RSV1 bit of the first header byte, marking a message compressed by permessage-deflate
+     */
+    static final int RSV1 = 0x40;
+
+    private FrameEncoder() {
+    }
+
+    static int headerSize(final long payloadLength, final boolean masked) {
+        int size = payloadLength < 126 ? 2 : payloadLength > 0xFFFF ? 10 : 4;
+        return masked ? size + 4 : size;
+    }
+
+    /**
+     * Write a complete frame at the position of the destination, advancing it past the frame.
+     */
+    static void encode(final ByteBuffer destination,
+                       final boolean finalFrame,
+                       final OpCode opCode,
+                       final boolean masked,
+                       final int mask,
+                       final byte[] payload,
+                       final int offset,
+                       final int length) {
+        encodeHeader(destination, finalFrame, opCode, masked, mask, length);
+        int payloadStart = destination.position();
+        destination.put(payload, offset, length);
+        if (masked) {
+            Masking.mask(destination, payloadStart, length, mask, 0);
+        }
+    }
+
+    /**
+     * Turn a payload already placed in the destination into a frame, by writing the header right in front
+     * of it and masking it in place. There must be room for {@link #headerSize(long, boolean)} bytes before
+     * the payload.
+     *
+     * @return index of the first byte of the frame, the destination position is left at the payload start
+     */
+    static int encodeInPlace(final ByteBuffer destination,
+                             final int payloadStart,
+                             final int length,
+                             final boolean finalFrame,
+                             final OpCode opCode,
+                             final boolean masked,
+                             final int mask) {
+        int frameStart = payloadStart - headerSize(length, masked);
+        destination.position(frameStart);
+        encodeHeader(destination, finalFrame, opCode, masked, mask, length);
+        if (masked) {
+            Masking.mask(destination, payloadStart, length, mask, 0);
+        }
+        return frameStart;
+    }
+
+    static void encodeHeader(final ByteBuffer destination,
+                             final boolean finalFrame,
+                             final OpCode opCode,
+                             final boolean masked,
+                             final int mask,
+                             final long length) {
+        destination.put((byte) ((finalFrame ? 0x80 : 0x00) | opCode.value));
+        int maskBit = masked ? 0x80 : 0x00;
+        if (length < 126) {
+            destination.put((byte) (maskBit | length));
+        } else if (length <= 0xFFFF) {
+            destination.put((byte) (maskBit | 126));
+            destination.putShort((short) length);
+        } else {
+            destination.put((byte) (maskBit | 127));
+            destination.putLong(length);
+        }
+        if (masked) {
+            destination.putInt(mask);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package se.divdev.rswsc;
+
+/**
+ * Header of a frame passing through the {@link FrameInterceptor} chain, only valid during the call.
+ */
+public interface FrameHeader {
+
+    OpCode getOpCode();
+
+    boolean isFinalFrame();
+
+    /**
+     * RSV1, set on the first frame of a message compressed by permessage-deflate
+     */
+    boolean isCompressed();
+
+    boolean isMasked();
+
+    long payloadSize();
+
+    /**
+     * Offset within the frame's payload of the part being delivered, always 0 for outgoing frames
+     */
+    long payloadOffset();
+}
@@ -0,0 +1,48 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sees frames as they pass between the socket and the client, registered in order with
+ * {@link RswsClientBuilder#withFrameInterceptor(FrameInterceptor)}. Frames are passed as views of the buffers
+ * they are read into or written from, nothing is copied for the chain, and a client without interceptors
+ * never calls into it.
+ * <p>
+ * Interceptors may read the bytes between position and limit, their position and limit are restored
+ * afterwards. Incoming payloads may also be rewritten in place, outgoing frames are read only. Returning
+ * false drops the frame and skips the rest of the chain.
+ */
+public interface FrameInterceptor {
+
+    /**
+     * Called on the thread reading the connection for each part of an incoming frame as it is decoded,
+     * before anything else looks at it. A frame may arrive in several parts, see
+     * {@link FrameHeader#payloadOffset()}, and a data frame should be dropped as a whole if at all.
+     *
+     * @param payload unmasked payload of this part, only valid during the call
+     * @return false to drop this part
+     */
+    default boolean onInbound(FrameHeader header, ByteBuffer payload, boolean endOfFrame) {
+        return true;
+    }
+
+    /**
+     * Called on the sending thread with each complete outgoing frame, before it is queued for writing. Any
+     * number of threads may be sending at once. Dropping a frame completes its message's future, so only
+     * unfragmented messages should be dropped.
+     *
+     * @param frame read only view of the header and masked payload of the frame, only valid during the call
+     * @return false to drop the frame
+     */
+    default boolean onOutbound(FrameHeader header, ByteBuffer frame) {
+        return true;
+    }
+
+    /**
+     * Log a one line summary of every frame at trace level to the {@code se.divdev.rswsc.FrameInterceptor}
+     * logger. Nothing is formatted unless trace logging is enabled.
+     */
+    static FrameInterceptor tracing() {
+        return TracingInterceptor.INSTANCE;
+    }
+}
@@ -0,0 +1,128 @@
+package se.divdev.rswsc;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of the HTTP response to the upgrade request.
+ * <p>
+ * Bytes are taken up to the empty line ending the headers and no further, whatever arrives in the same
+ * read after it already belongs to the WebSocket connection and is left in the buffer. Lines may end in
+ * CRLF or a bare LF. Header names are matched case-insensitively, repeated headers are joined with commas.
+ */
+class HandshakeResponse {
+
+    static final int MAX_SIZE = 64 * 1024;
+
+    private byte[] bytes = new byte[512];
+
+    private int length;
+
+    // Start of the line being read
+    private int lineStart;
+
+    private boolean complete;
+
+    private String statusLine;
+
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    /**
+     * Take bytes from the buffer until the end of the headers
+     *
+     * @return true once the whole response head has been read, the buffer is then positioned after it
+     */
+    boolean parse(final ByteBuffer buffer) throws ProtocolException {
+        while (!complete && buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (length == bytes.length) {
+                if (length == MAX_SIZE) {
+                    throw new ProtocolException("Handshake response larger than " + MAX_SIZE + " bytes");
+                }
+                bytes = Arrays.copyOf(bytes, Math.min(MAX_SIZE, length * 2));
+            }
+            bytes[length++] = b;
+            if (b == '\n') {
+                int lineEnd = lineEnd(length - 1);
+                if (lineEnd == lineStart) {
+                    complete = true;
+                } else {
+                    onLine(new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+                }
+                lineStart = length;
+            }
+        }
+        return complete;
+    }
+
+    // End of the line terminated by the LF at the index, before any CR
+    private int lineEnd(final int lf) {
+        return lf > lineStart && bytes[lf - 1] == '\r' ? lf - 1 : lf;
+    }
+
+    private void onLine(final String line) {
+        if (statusLine == null) {
+            statusLine = line;
+            return;
+        }
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            // Not a header, ignored like any other line the validation does not look at
+            return;
+        }
+        String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = line.substring(colon + 1).trim();
+        headers.merge(name, value, (first, second) -> first + ", " + second);
+    }
+
+    String statusLine() {
+        return statusLine;
+    }
+
+    /**
+     * True if the status line has the given version and status code
+     */
+    boolean hasStatus(final String httpVersion, final int statusCode) {
+        String expected = httpVersion + " " + statusCode;
+        return statusLine != null
+                && statusLine.regionMatches(true, 0, expected, 0, expected.length())
+                && (statusLine.length() == expected.length() || statusLine.charAt(expected.length()) == ' ');
+    }
+
+    /**
+     * Value of the header, repeated headers joined with commas, or null if absent
+     */
+    String header(final String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * True if the comma separated header contains the token, ignoring case
+     */
+    boolean headerContainsToken(final String name, final String token) {
+        String value = header(name);
+        if (value == null) {
+            return false;
+        }
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(',', start);
+            end = end < 0 ? value.length() : end;
+            if (value.substring(start, end).trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
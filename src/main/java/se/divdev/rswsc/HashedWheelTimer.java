@@ -0,0 +1,297 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer for the many short timeouts of many connections, on a single thread.
+ * <p>
+ * Timeouts are hashed into a ring of buckets by the tick they expire on, so scheduling and cancelling are
+ * constant time whatever the number of timeouts, in exchange for expiring up to one tick late. New and
+ * cancelled timeouts are handed to the timer thread through lock-free queues and only that thread touches
+ * the buckets. Tasks run on the timer thread and must be short, anything slow belongs on an executor.
+ * <p>
+ * Clients use {@link #shared()} unless given a timer of their own with
+ * {@link RswsClientBuilder#withTimer(HashedWheelTimer)}.
+ */
+public final class HashedWheelTimer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    // Bounds the time spent moving new timeouts into buckets, so a flood cannot delay expiry for long
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final long startTime = System.nanoTime();
+
+    private final Thread worker;
+
+    private final boolean closeable;
+
+    private volatile boolean closed;
+
+    // Only touched by the timer thread
+    private long tick;
+
+    private static final class Shared {
+        static final HashedWheelTimer INSTANCE = new HashedWheelTimer(DEFAULT_TICK, DEFAULT_TICKS_PER_WHEEL, false);
+    }
+
+    public HashedWheelTimer() {
+        this(DEFAULT_TICK, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * @param tick          resolution of the timer, timeouts expire up to this much late
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     */
+    public HashedWheelTimer(final Duration tick, final int ticksPerWheel) {
+        this(tick, ticksPerWheel, true);
+    }
+
+    private HashedWheelTimer(final Duration tick, final int ticksPerWheel, final boolean closeable) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive: " + tick);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Ticks per wheel out of range: " + ticksPerWheel);
+        }
+        this.tickNanos = tick.toNanos();
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.closeable = closeable;
+        this.worker = new Thread(this::work, "rswsc-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Timer shared by all clients that are not given one of their own, never closed
+     */
+    public static HashedWheelTimer shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Run the task once the delay has passed, on the timer thread
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Timer closed");
+        }
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer thread, dropping every timeout not yet expired
+     *
+     * @throws IllegalStateException for the {@link #shared()} timer
+     */
+    @Override
+    public void close() {
+        if (!closeable) {
+            throw new IllegalStateException("The shared timer cannot be closed");
+        }
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (!closed) {
+            long deadline = awaitNextTick();
+            if (closed) {
+                break;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+        pending.clear();
+        cancelled.clear();
+    }
+
+    // Sleeps until the end of the current tick, returning it relative to the start time
+    private long awaitNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        long remaining;
+        while (!closed && (remaining = deadline - (System.nanoTime() - startTime)) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+        return deadline;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK && (timeout = pending.poll()) != null; i++) {
+            if (timeout.state != Timeout.INIT) {
+                continue;
+            }
+            long expiryTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            // Already overdue timeouts go in the current bucket
+            wheel[(int) (Math.max(expiryTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Handle to a scheduled task
+     */
+    public static final class Timeout {
+
+        private static final int INIT = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        // Relative to the start time of the timer
+        private final long deadline;
+
+        private volatile int state = INIT;
+
+        // Bucket bookkeeping, only touched by the timer thread
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout next;
+
+        private Timeout previous;
+
+        private Timeout(final HashedWheelTimer timer, final Runnable task, final long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Keep the task from running, if it has not already
+         *
+         * @return true if this call cancelled it
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.warn("Error in timer task", t);
+            }
+        }
+    }
+
+    // Doubly linked list of the timeouts hashed to one tick
+    private static final class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        void add(final Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        void expire(final long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(final Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+            timeout.bucket = null;
+        }
+    }
+}
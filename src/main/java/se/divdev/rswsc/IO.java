@@ -5,6 +5,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 class IO implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(IO.class);
@@ -15,22 +21,92 @@ class IO implements Closeable {
     final Socket socket;
     private final InputStream inputStream;
     private final OutputStream outputStream;
-
-    public IO(final Socket socket) throws IOException {
+    private final BufferPool bufferPool;
+    private final ReadableByteChannel inputChannel;
+    private final WritableByteChannel outputChannel;
+    // Locks rather than monitors, so blocking socket IO does not pin the carrier of a virtual thread
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public IO(final Socket socket, final BufferPool bufferPool) throws IOException {
         this.socket = socket;
         this.inputStream = socket.getInputStream();
         this.outputStream = socket.getOutputStream();
+        this.bufferPool = bufferPool;
+        // Straight to the socket channel when there is one, as the stream adapters copy through an array
+        this.inputChannel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(inputStream);
+        this.outputChannel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(outputStream);
     }
 
     void commit() throws IOException {
         if (socket == null || !socket.isConnected() || socket.isClosed() || socket.isOutputShutdown()) {
             throw new IllegalStateException("Not connected!");
         }
-        synchronized (this.outputStream) {
+        writeLock.lock();
+        try {
             outputBuffers.get().writeTo(this.outputStream);
             this.outputStream.flush();
             LOGGER.debug("Flushing outputstream");
             outputBuffers.get().reset();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write frames straight to the socket, bypassing the line buffer used for the handshake. Sockets backed
+     * by a channel get a single gathering write, others get the frames coalesced into one write.
+     */
+    void write(final ByteBuffer[] buffers, final int offset, final int length) throws IOException {
+        if (socket == null || !socket.isConnected() || socket.isClosed() || socket.isOutputShutdown()) {
+            throw new IllegalStateException("Not connected!");
+        }
+        writeLock.lock();
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel != null) {
+                ByteBuffer last = buffers[offset + length - 1];
+                while (last.hasRemaining()) {
+                    channel.write(buffers, offset, length);
+                }
+                return;
+            }
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += buffers[i].remaining();
+            }
+            PooledBuffer coalesced = length > 1 && total <= BufferPool.MAX_POOLED_SIZE ? bufferPool.acquire((int) total) : null;
+            try {
+                if (coalesced != null) {
+                    for (int i = offset; i < offset + length; i++) {
+                        coalesced.buffer().put(buffers[i]);
+                    }
+                    coalesced.buffer().flip();
+                    write(coalesced.buffer());
+                } else {
+                    for (int i = offset; i < offset + length; i++) {
+                        write(buffers[i]);
+                    }
+                }
+                this.outputStream.flush();
+            } finally {
+                if (coalesced != null) {
+                    coalesced.release();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            this.outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            while (buffer.hasRemaining()) {
+                outputChannel.write(buffer);
+            }
         }
     }
 
@@ -46,23 +122,24 @@ class IO implements Closeable {
         outputBuffers.get().write(data);
     }
 
-    byte[] read() throws IOException {
-        return read(65536);
-    }
-
-    byte[] read(final long length) throws IOException {
-        synchronized (this.inputStream) {
-            if (length <= 0) {
-                return new byte[0];
+    /**
+     * Read whatever is available into the remaining space of the buffer
+     *
+     * @return number of bytes read, or -1 at end of stream
+     */
+    int read(final ByteBuffer buffer) throws IOException {
+        readLock.lock();
+        try {
+            if (!buffer.hasArray()) {
+                return inputChannel.read(buffer);
             }
-            byte[] buffer = new byte[(int) length];
-            int bytesRead = inputStream.read(buffer);
-            if (bytesRead <= 0) {
-                return new byte[0];
+            int bytesRead = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (bytesRead > 0) {
+                buffer.position(buffer.position() + bytesRead);
             }
-            byte[] result = new byte[bytesRead];
-            System.arraycopy(buffer, 0, result, 0, result.length);
-            return result;
+            return bytesRead;
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -0,0 +1,15 @@
+package se.divdev.rswsc;
+
+/**
+ * Which side of a connection has been idle, signalled to {@link WebSocketEvent#onIdle(IdleState)}.
+ */
+public enum IdleState {
+    /**
+     * Nothing was read for the read idle timeout.
+     */
+    READER_IDLE,
+    /**
+     * Nothing was sent for the write idle timeout.
+     */
+    WRITER_IDLE
+}
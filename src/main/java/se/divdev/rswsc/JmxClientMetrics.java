@@ -0,0 +1,189 @@
+package se.divdev.rswsc;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics kept in lock-free counters and {@link LatencyHistogram}s and exposed as a platform MXBean named
+ * {@code se.divdev.rswsc:type=ClientMetrics,name=<name>}. Share one instance between clients to see them
+ * combined.
+ */
+public final class JmxClientMetrics implements ClientMetrics, ClientMetricsMXBean, Closeable {
+
+    private static final int OPCODES = 16;
+
+    private final ObjectName objectName;
+
+    private final AtomicLongArray framesIn = new AtomicLongArray(OPCODES);
+
+    private final AtomicLongArray bytesIn = new AtomicLongArray(OPCODES);
+
+    private final AtomicLongArray framesOut = new AtomicLongArray(OPCODES);
+
+    private final AtomicLongArray bytesOut = new AtomicLongArray(OPCODES);
+
+    private final LatencyHistogram fragmentsPerMessage = new LatencyHistogram();
+
+    private final LatencyHistogram outboundQueueBytes = new LatencyHistogram();
+
+    private final LatencyHistogram dispatchLag = new LatencyHistogram();
+
+    private final LatencyHistogram handshake = new LatencyHistogram();
+
+    private final LatencyHistogram pingRoundTrip = new LatencyHistogram();
+
+    private JmxClientMetrics(final ObjectName objectName) {
+        this.objectName = objectName;
+    }
+
+    /**
+     * Create and register with the platform MBean server
+     *
+     * @throws IllegalArgumentException if the name is not valid or already registered
+     */
+    public static JmxClientMetrics register(final String name) {
+        try {
+            ObjectName objectName = new ObjectName("se.divdev.rswsc:type=ClientMetrics,name=" + ObjectName.quote(name));
+            JmxClientMetrics metrics = new JmxClientMetrics(objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            return metrics;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("Metrics already registered: " + name, e);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not register metrics: " + name, e);
+        }
+    }
+
+    public ObjectName objectName() {
+        return objectName;
+    }
+
+    @Override
+    public void frameIn(final OpCode opCode, final long payloadBytes) {
+        framesIn.incrementAndGet(opCode.value & (OPCODES - 1));
+        bytesIn.addAndGet(opCode.value & (OPCODES - 1), payloadBytes);
+    }
+
+    @Override
+    public void frameOut(final OpCode opCode, final long frameBytes) {
+        framesOut.incrementAndGet(opCode.value & (OPCODES - 1));
+        bytesOut.addAndGet(opCode.value & (OPCODES - 1), frameBytes);
+    }
+
+    @Override
+    public void messageIn(final int fragments) {
+        fragmentsPerMessage.record(fragments);
+    }
+
+    @Override
+    public void outboundQueueDepth(final long pendingBytes) {
+        outboundQueueBytes.record(pendingBytes);
+    }
+
+    @Override
+    public void dispatchLag(final long nanos) {
+        dispatchLag.record(nanos);
+    }
+
+    @Override
+    public void handshake(final long nanos) {
+        handshake.record(nanos);
+    }
+
+    @Override
+    public void pingRoundTrip(final long nanos) {
+        pingRoundTrip.record(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getFramesIn() {
+        return byOpCode(framesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn() {
+        return byOpCode(bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getFramesOut() {
+        return byOpCode(framesOut);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut() {
+        return byOpCode(bytesOut);
+    }
+
+    @Override
+    public Map<String, Long> getFragmentsPerMessage() {
+        return summary(fragmentsPerMessage);
+    }
+
+    @Override
+    public Map<String, Long> getOutboundQueueBytes() {
+        return summary(outboundQueueBytes);
+    }
+
+    @Override
+    public Map<String, Long> getDispatchLagNanos() {
+        return summary(dispatchLag);
+    }
+
+    @Override
+    public Map<String, Long> getHandshakeNanos() {
+        return summary(handshake);
+    }
+
+    @Override
+    public Map<String, Long> getPingRoundTripNanos() {
+        return summary(pingRoundTrip);
+    }
+
+    private static Map<String, Long> byOpCode(final AtomicLongArray counters) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (int i = 0; i < OPCODES; i++) {
+            OpCode opCode = OpCode.fromValue((byte) i);
+            long value = counters.get(i);
+            if (opCode != OpCode.UNKNOWN || value > 0) {
+                values.put(opCode == OpCode.UNKNOWN ? String.format("0x%X", i) : opCode.name(), value);
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, Long> summary(final LatencyHistogram histogram) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("count", histogram.count());
+        values.put("min", histogram.min());
+        values.put("mean", Math.round(histogram.mean()));
+        values.put("max", histogram.max());
+        values.put("p50", histogram.percentile(50));
+        values.put("p90", histogram.percentile(90));
+        values.put("p99", histogram.percentile(99));
+        values.put("p999", histogram.percentile(99.9));
+        return values;
+    }
+
+    /**
+     * Unregister from the platform MBean server
+     */
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister metrics: " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package se.divdev.rswsc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with a fixed memory footprint, for recording from many threads
+ * without allocating.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} are counted exactly, larger ones in log-linear buckets of
+ * {@value #SUB_BUCKETS} per power of two, so a reported percentile is at most about 6% above the recorded
+ * value. Reading while others record gives a close but not necessarily consistent view.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (Long.SIZE - 1 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values are recorded as zero
+     */
+    public void record(final long value) {
+        long recorded = Math.max(0, value);
+        counts.incrementAndGet(index(recorded));
+        count.incrementAndGet();
+        sum.addAndGet(recorded);
+        long current;
+        while (recorded < (current = min.get()) && !min.compareAndSet(current, recorded)) {
+            // Lost a race against another smaller value, try again
+        }
+        while (recorded > (current = max.get()) && !max.compareAndSet(current, recorded)) {
+            // Lost a race against another larger value, try again
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * Smallest recorded value, zero if none
+     */
+    public long min() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * The value below or at which the given percentage of recorded values fall, rounded up to the bucket
+     *
+     * @param percentile between 0 and 100
+     */
+    public long percentile(final double percentile) {
+        long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestInBucket(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestInBucket(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
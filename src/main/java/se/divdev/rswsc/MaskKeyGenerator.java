@@ -0,0 +1,32 @@
+package se.divdev.rswsc;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Source of the masking keys of outgoing frames, called once per frame from whichever thread is sending.
+ */
+@FunctionalInterface
+public interface MaskKeyGenerator {
+
+    /**
+     * @return the four masking key bytes in network order
+     */
+    int nextMask();
+
+    /**
+     * A fresh random key per frame from a per thread generator, so concurrent senders never contend on a
+     * shared seed. The default.
+     */
+    static MaskKeyGenerator random() {
+        return () -> ThreadLocalRandom.current().nextInt();
+    }
+
+    /**
+     * The same key for every frame. RFC 6455 requires unpredictable keys to protect intermediaries that
+     * cache, so only for links where every hop is trusted. A key of zero leaves payloads unmasked and skips
+     * masking altogether.
+     */
+    static MaskKeyGenerator fixed(final int mask) {
+        return () -> mask;
+    }
+}
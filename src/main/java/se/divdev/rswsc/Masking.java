@@ -0,0 +1,84 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XOR masking of payloads, eight bytes at a time.
+ * <p>
+ * The mask is an int holding the four masking key bytes in network order, {@code maskIndex} is the offset
+ * into the payload of the first byte to process, so a payload can be masked in any number of chunks.
+ * Masking twice with the same key and index restores the original bytes.
+ */
+final class Masking {
+
+    private Masking() {
+    }
+
+    static void mask(final byte[] data, final int offset, final int length, final int mask, final long maskIndex) {
+        if (mask == 0) {
+            return;
+        }
+        int done = VectorMasking.AVAILABLE ? VectorMasking.mask(data, offset, length, rotate(mask, maskIndex)) : 0;
+        if (done < length) {
+            maskWords(ByteBuffer.wrap(data), offset + done, length - done, rotate(mask, maskIndex + done));
+        }
+    }
+
+    static void mask(final ByteBuffer buffer, final int start, final int length, final int mask, final long maskIndex) {
+        if (mask == 0) {
+            return;
+        }
+        if (buffer.hasArray() && VectorMasking.AVAILABLE) {
+            mask(buffer.array(), buffer.arrayOffset() + start, length, mask, maskIndex);
+            return;
+        }
+        maskWords(buffer, start, length, rotate(mask, maskIndex));
+    }
+
+    /**
+     * Copy the remaining bytes of the source to the position of the destination, masking them on the way,
+     * in a single pass. Both buffers are advanced past the bytes copied.
+     */
+    static void maskCopy(final ByteBuffer source, final ByteBuffer destination, final int mask, final long maskIndex) {
+        ByteBuffer from = source.order() == destination.order() ? source : source.duplicate().order(destination.order());
+        int rotated = rotate(mask, maskIndex);
+        long mask8 = (rotated & 0xFFFFFFFFL) | ((long) rotated << 32);
+        if (destination.order() == ByteOrder.LITTLE_ENDIAN) {
+            mask8 = Long.reverseBytes(mask8);
+        }
+        int length = source.remaining();
+        int sourceStart = source.position();
+        int destinationStart = destination.position();
+        int i = 0;
+        for (int wordEnd = length - 7; i < wordEnd; i += 8) {
+            destination.putLong(destinationStart + i, from.getLong(sourceStart + i) ^ mask8);
+        }
+        for (; i < length; i++) {
+            destination.put(destinationStart + i, (byte) (from.get(sourceStart + i) ^ (rotated >>> (24 - ((i & 3) << 3)))));
+        }
+        source.position(sourceStart + length);
+        destination.position(destinationStart + length);
+    }
+
+    // Mask as seen from the byte at maskIndex
+    private static int rotate(final int mask, final long maskIndex) {
+        return Integer.rotateLeft(mask, (int) (maskIndex & 3) << 3);
+    }
+
+    private static void maskWords(final ByteBuffer buffer, final int start, final int length, final int mask) {
+        long mask8 = (mask & 0xFFFFFFFFL) | ((long) mask << 32);
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            mask8 = Long.reverseBytes(mask8);
+        }
+        int index = start;
+        int end = start + length;
+        for (int wordEnd = end - 7; index < wordEnd; index += 8) {
+            buffer.putLong(index, buffer.getLong(index) ^ mask8);
+        }
+        // At most seven bytes left, continuing the mask where the words stopped
+        for (int i = index - start; index < end; index++, i++) {
+            buffer.put(index, (byte) (buffer.get(index) ^ (mask >>> (24 - ((i & 3) << 3)))));
+        }
+    }
+}
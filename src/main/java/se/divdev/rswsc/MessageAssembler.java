@@ -0,0 +1,126 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reassembles the fragments of incoming data messages into pooled chunks, for whole message delivery.
+ * <p>
+ * Chunks grow geometrically from {@value #MIN_CHUNK_SIZE} bytes up to {@value #MAX_CHUNK_SIZE} bytes, and
+ * are never copied together. A message arriving as a single frame within one read skips reassembly and
+ * gets one exactly sized buffer, or none at all when the handler runs on the reading thread.
+ * Only used by the thread reading the connection.
+ */
+class MessageAssembler {
+
+    static final int MIN_CHUNK_SIZE = 4096;
+
+    static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private final BufferPool bufferPool;
+
+    private final long maxMessageSize;
+
+    private final boolean borrowReadBuffer;
+
+    private final List<PooledBuffer> chunks = new ArrayList<>();
+
+    private OpCode opCode;
+
+    private long size;
+
+    /**
+     * @param borrowReadBuffer true if messages are handled before the read buffer is reused, so single
+     *                         frame messages can be delivered straight from it
+     */
+    MessageAssembler(final BufferPool bufferPool, final long maxMessageSize, final boolean borrowReadBuffer) {
+        this.bufferPool = bufferPool;
+        this.maxMessageSize = maxMessageSize;
+        this.borrowReadBuffer = borrowReadBuffer;
+    }
+
+    /**
+     * True if no message is being reassembled
+     */
+    boolean isEmpty() {
+        return opCode == null;
+    }
+
+    /**
+     * @return false if the content would take the message above the max message size
+     */
+    boolean fits(final long length) {
+        return size + length <= maxMessageSize;
+    }
+
+    /**
+     * A whole message from a single frame, taking the fast path
+     */
+    WebSocketMessage single(final OpCode opCode, final ByteBuffer content) {
+        if (borrowReadBuffer) {
+            return WebSocketMessage.borrowed(opCode, content.slice());
+        }
+        int length = content.remaining();
+        PooledBuffer chunk = bufferPool.acquire(length);
+        chunk.buffer().put(content.duplicate()).flip();
+        return new WebSocketMessage(opCode, new ByteBuffer[]{chunk.buffer()}, new PooledBuffer[]{chunk}, length);
+    }
+
+    /**
+     * Copy content of the message being reassembled, check {@link #fits(long)} first
+     *
+     * @param opCode opcode of the first frame of the message
+     */
+    void append(final OpCode opCode, final ByteBuffer content) {
+        if (this.opCode == null) {
+            this.opCode = opCode;
+        }
+        ByteBuffer source = content.duplicate();
+        size += source.remaining();
+        while (source.hasRemaining()) {
+            PooledBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || !chunk.buffer().hasRemaining()) {
+                chunk = bufferPool.acquire(nextChunkSize(source.remaining()));
+                chunks.add(chunk);
+            }
+            ByteBuffer target = chunk.buffer();
+            int length = Math.min(target.remaining(), source.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + length);
+            target.put(source);
+            source.limit(limit);
+        }
+    }
+
+    private int nextChunkSize(final int needed) {
+        return (int) Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, Math.max(needed, size)));
+    }
+
+    /**
+     * Hand the reassembled message over, the assembler is ready for the next one
+     */
+    WebSocketMessage finish() {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = (ByteBuffer) chunks.get(i).buffer().flip();
+        }
+        WebSocketMessage message = new WebSocketMessage(opCode, buffers, chunks.toArray(new PooledBuffer[0]), size);
+        chunks.clear();
+        opCode = null;
+        size = 0;
+        return message;
+    }
+
+    /**
+     * Drop the message being reassembled
+     */
+    void discard() {
+        for (PooledBuffer chunk : chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+        opCode = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,169 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking side of an upgraded connection. All reads, writes and state changes happen on the owning
+ * {@link EventLoop} thread.
+ */
+class NioConnection implements OutboundQueue.Transport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+
+    final SocketChannel channel;
+
+    private final EventLoop eventLoop;
+
+    private final RswsClient client;
+
+    private final OutboundQueue outbound;
+
+    private final PooledBuffer inbound;
+
+    private final ReadGate readGate;
+
+    private SelectionKey key;
+
+    private boolean closeWhenFlushed;
+
+    private boolean closed;
+
+    NioConnection(final SocketChannel channel,
+                  final EventLoop eventLoop,
+                  final RswsClient client,
+                  final PooledBuffer inbound) throws IOException {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.client = client;
+        this.inbound = inbound;
+        this.outbound = client.newOutboundQueue(this, eventLoop);
+        this.readGate = client.readGate();
+        channel.configureBlocking(false);
+        if (readGate != null) {
+            readGate.onOpen(this::resumeReading);
+        }
+    }
+
+    boolean inEventLoop() {
+        return eventLoop.inEventLoop();
+    }
+
+    void register() {
+        eventLoop.register(this);
+    }
+
+    void registered(final SelectionKey key) throws IOException {
+        this.key = key;
+        if (inbound.buffer().position() > 0) {
+            // Frames that arrived together with the handshake response
+            ByteBuffer buffer = inbound.buffer();
+            buffer.flip();
+            client.onInbound(buffer);
+            buffer.clear();
+        }
+        pauseReadingIfShut();
+        onWritable();
+    }
+
+    void onReadable() throws IOException {
+        ByteBuffer buffer = inbound.buffer();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            throw new EOFException("Connection closed by peer");
+        }
+        buffer.flip();
+        client.onInbound(buffer);
+        buffer.clear();
+        pauseReadingIfShut();
+    }
+
+    private void pauseReadingIfShut() {
+        if (readGate != null && !readGate.isOpen() && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    // Called by the read gate as it opens, from any thread
+    private void resumeReading() {
+        eventLoop.execute(() -> {
+            if (!closed && key != null && key.isValid() && readGate.isOpen()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    void onWritable() throws IOException {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (outbound.drain()) {
+            onWriteComplete();
+        } else {
+            onWriteIncomplete();
+        }
+    }
+
+    OutboundQueue outbound() {
+        return outbound;
+    }
+
+    /**
+     * Close the connection once everything queued so far has been written.
+     */
+    void closeWhenFlushed() {
+        eventLoop.execute(() -> {
+            closeWhenFlushed = true;
+            if (outbound.isEmpty()) {
+                close(null);
+            }
+        });
+    }
+
+    @Override
+    public void write(final ByteBuffer[] buffers, final int offset, final int length) throws IOException {
+        channel.write(buffers, offset, length);
+    }
+
+    @Override
+    public void onWriteIncomplete() {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override
+    public void onWriteComplete() {
+        if (closeWhenFlushed) {
+            close(null);
+        }
+    }
+
+    @Override
+    public void onWriteError(final IOException exception) {
+        close(exception);
+    }
+
+    void close(final Throwable cause) {
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(() -> close(cause));
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        IO.close(channel);
+        outbound.close();
+        inbound.release();
+        LOGGER.debug("Connection closed", cause);
+        client.onConnectionClosed(cause);
+    }
+}
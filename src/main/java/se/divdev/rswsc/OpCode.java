@@ -13,6 +13,17 @@ public enum OpCode {
     PONG(0xA);
     //*  %xB-F are reserved for further control frames
 
+    private static final OpCode[] BY_VALUE = new OpCode[16];
+
+    static {
+        Arrays.fill(BY_VALUE, UNKNOWN);
+        for (OpCode opCode : values()) {
+            if (opCode != UNKNOWN) {
+                BY_VALUE[opCode.value] = opCode;
+            }
+        }
+    }
+
     public final byte value;
 
     OpCode(final int value) {
@@ -23,10 +34,14 @@ public enum OpCode {
         this.value = value;
     }
 
+    public boolean isControl() {
+        return this != UNKNOWN && (value & 0x08) != 0;
+    }
+
     public static OpCode fromValue(final byte value) {
-        return Arrays.stream(values())
-                .filter(oc -> oc.value == value)
-                .findFirst()
-                .orElse(UNKNOWN);
+        if (value < 0 || value >= BY_VALUE.length) {
+            return UNKNOWN;
+        }
+        return BY_VALUE[value];
     }
 }
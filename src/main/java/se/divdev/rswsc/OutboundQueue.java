@@ -0,0 +1,454 @@
+package se.divdev.rswsc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outgoing frames of one connection, written by a single writer.
+ * <p>
+ * Any thread may {@link #offer(PooledBuffer)} a frame. Offered frames are pushed onto a lock-free stack,
+ * which the writer takes in one go and turns back into offer order. Everything pending is then written
+ * with as few gathering writes as the batch limits allow, so a burst of small frames costs one syscall
+ * instead of one per frame.
+ * <p>
+ * Control frames take a lane of their own and are written ahead of queued data frames, at the next frame
+ * boundary, so a ping or pong never waits behind a large message. A close frame is the exception, it
+ * queues behind the data offered before it, and everything offered after it is dropped.
+ * <p>
+ * The queue keeps count of the bytes not yet written. It turns unwritable when they rise above the high
+ * watermark and writable again once they drop below the low watermark, which senders can wait for with
+ * {@link #awaitWritable()}.
+ */
+class OutboundQueue {
+
+    /**
+     * Maximum number of frames handed to a single gathering write
+     */
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    interface Transport {
+        /**
+         * Write as much of the buffers as possible, a non-blocking transport may stop early.
+         */
+        void write(ByteBuffer[] buffers, int offset, int length) throws IOException;
+
+        /**
+         * The socket could not take everything, {@link #drain()} should be called again once it can.
+         */
+        void onWriteIncomplete();
+
+        /**
+         * Everything queued has been written.
+         */
+        void onWriteComplete();
+
+        void onWriteError(IOException exception);
+    }
+
+    interface WritabilityListener {
+        void onWritabilityChanged(boolean writable);
+    }
+
+    private final Transport transport;
+
+    private final Executor executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int maxBatchBytes;
+
+    private final long maxBatchLatencyNanos;
+
+    private final long lowWaterMark;
+
+    private final long highWaterMark;
+
+    private final WritabilityListener writabilityListener;
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+
+    private final ReentrantLock writabilityLock = new ReentrantLock();
+
+    private final Condition writableAgain = writabilityLock.newCondition();
+
+    // Most recently offered frame first, linked through PooledBuffer.next
+    private final AtomicReference<PooledBuffer> incoming = new AtomicReference<>();
+
+    // Control frames, most recently offered first, linked through PooledBuffer.next
+    private final AtomicReference<PooledBuffer> incomingControl = new AtomicReference<>();
+
+    // First close frame offered, queued in the data lane
+    private final AtomicReference<PooledBuffer> closeFrame = new AtomicReference<>();
+
+    // True from scheduling a drain until the writer finds nothing left to write
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // True while the writer waits for the transport to take more, see Transport#onWriteIncomplete
+    private final AtomicBoolean awaitingTransport = new AtomicBoolean();
+
+    private final Runnable drainTask = this::drainAndReport;
+
+    private final Runnable delayedDrainTask = this::scheduleDrainNow;
+
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+
+    private final int[] batchSizes = new int[MAX_BATCH_FRAMES];
+
+    // Frames taken by the writer but not fully written yet, only touched by the writer
+    private PooledBuffer pendingHead;
+
+    private PooledBuffer pendingTail;
+
+    // True if the first pending frame has been partly written, so nothing may go in front of it
+    private boolean headStarted;
+
+    // True once a close frame is pending, anything offered after it is dropped
+    private boolean closeQueued;
+
+    private volatile boolean closed;
+
+    /**
+     * @param executor             where the writer runs
+     * @param scheduler            used to hold back the writer when a batch latency is configured
+     * @param maxBatchBytes        bytes after which a batch is written, a single larger frame is still written whole
+     * @param maxBatchLatencyNanos how long the first frame of a batch may wait for others to join it
+     */
+    OutboundQueue(final Transport transport,
+                  final Executor executor,
+                  final ScheduledExecutorService scheduler,
+                  final int maxBatchBytes,
+                  final long maxBatchLatencyNanos,
+                  final long lowWaterMark,
+                  final long highWaterMark,
+                  final WritabilityListener writabilityListener) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("Low watermark " + lowWaterMark + " above high watermark " + highWaterMark);
+        }
+        this.transport = transport;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxBatchLatencyNanos = maxBatchLatencyNanos;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.writabilityListener = writabilityListener;
+    }
+
+    /**
+     * Queue a data frame, see {@link #offer(PooledBuffer, boolean)}
+     */
+    void offer(final PooledBuffer frame) {
+        offer(frame, false);
+    }
+
+    /**
+     * Queue a frame, taking ownership of it. It is released once written or when the queue is closed, and
+     * its promise, if any, completed accordingly.
+     *
+     * @param control true for a control frame, written ahead of queued data frames unless it is a close
+     */
+    void offer(final PooledBuffer frame, final boolean control) {
+        if (pendingBytes.addAndGet(frame.buffer().remaining()) > highWaterMark && writable.compareAndSet(true, false)) {
+            writabilityListener.onWritabilityChanged(false);
+        }
+        boolean close = control && isClose(frame);
+        if (close) {
+            // Offered in line with the data, so a close never overtakes what was sent before it
+            closeFrame.compareAndSet(null, frame);
+        }
+        AtomicReference<PooledBuffer> lane = control && !close ? incomingControl : incoming;
+        PooledBuffer head;
+        do {
+            head = lane.get();
+            frame.next = head;
+        } while (!lane.compareAndSet(head, frame));
+
+        if (closed) {
+            releaseIncoming();
+        } else if (scheduled.compareAndSet(false, true)) {
+            if (maxBatchLatencyNanos > 0) {
+                scheduler.schedule(delayedDrainTask, maxBatchLatencyNanos, TimeUnit.NANOSECONDS);
+            } else {
+                executor.execute(drainTask);
+            }
+        }
+    }
+
+    boolean isWritable() {
+        return writable.get();
+    }
+
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Block until the queue has drained below the low watermark or is closed.
+     */
+    void awaitWritable() throws InterruptedIOException {
+        if (writable.get()) {
+            return;
+        }
+        writabilityLock.lock();
+        try {
+            while (!writable.get() && !closed) {
+                writableAgain.await();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write buffer to drain");
+        } finally {
+            writabilityLock.unlock();
+        }
+    }
+
+    private void written(final long bytes) {
+        if (pendingBytes.addAndGet(-bytes) < lowWaterMark && writable.compareAndSet(false, true)) {
+            signalWritable();
+            writabilityListener.onWritabilityChanged(true);
+        }
+    }
+
+    private void signalWritable() {
+        writabilityLock.lock();
+        try {
+            writableAgain.signalAll();
+        } finally {
+            writabilityLock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return pendingHead == null && incoming.get() == null && incomingControl.get() == null;
+    }
+
+    private void scheduleDrainNow() {
+        executor.execute(drainTask);
+    }
+
+    private void drainAndReport() {
+        try {
+            if (drain()) {
+                transport.onWriteComplete();
+            } else {
+                transport.onWriteIncomplete();
+            }
+        } catch (IOException exception) {
+            release(pendingHead, exception);
+            pendingHead = null;
+            pendingTail = null;
+            headStarted = false;
+            close();
+            transport.onWriteError(exception);
+        }
+    }
+
+    /**
+     * Write until nothing is left or the transport cannot take more. Must only be called by the writer,
+     * that is from a scheduled drain or after {@link Transport#onWriteIncomplete()}.
+     *
+     * @return true if everything was written, false if the transport stopped early
+     */
+    boolean drain() throws IOException {
+        awaitingTransport.set(false);
+        while (true) {
+            if (closed) {
+                releasePending();
+                releaseIncoming();
+                return true;
+            }
+            takeIncoming();
+            takeControl();
+            if (pendingHead == null) {
+                scheduled.set(false);
+                // Frames offered after taking the stacks but before clearing the flag
+                if ((incoming.get() == null && incomingControl.get() == null) || !scheduled.compareAndSet(false, true)) {
+                    return true;
+                }
+                continue;
+            }
+
+            int count = 0;
+            long bytes = 0;
+            for (PooledBuffer frame = pendingHead; frame != null && count < batch.length; frame = frame.next) {
+                int remaining = frame.buffer().remaining();
+                if (count > 0 && bytes + remaining > maxBatchBytes) {
+                    break;
+                }
+                batchSizes[count] = remaining;
+                batch[count++] = frame.buffer();
+                bytes += remaining;
+            }
+
+            boolean complete;
+            try {
+                transport.write(batch, 0, count);
+                complete = !batch[count - 1].hasRemaining();
+            } finally {
+                boolean started = false;
+                for (int i = 0; i < count; i++) {
+                    int remaining = batch[i].remaining();
+                    started |= remaining > 0 && remaining < batchSizes[i];
+                    bytes -= remaining;
+                    batch[i] = null;
+                }
+                written(bytes);
+                PooledBuffer head = pendingHead;
+                while (pendingHead != null && !pendingHead.buffer().hasRemaining()) {
+                    PooledBuffer written = pendingHead;
+                    pendingHead = written.next;
+                    written.next = null;
+                    complete(written, null);
+                }
+                if (pendingHead == null) {
+                    pendingTail = null;
+                }
+                // A partly written frame always ends up first
+                headStarted = started || (headStarted && pendingHead == head);
+            }
+            if (!complete) {
+                awaitingTransport.set(true);
+                return false;
+            }
+        }
+    }
+
+    // Move offered data frames to the end of the pending list, restoring offer order
+    private void takeIncoming() {
+        PooledBuffer frame = incoming.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        if (closeQueued) {
+            release(frame, new ClosedChannelException());
+            return;
+        }
+        PooledBuffer last = frame;
+        PooledBuffer first = reverse(frame);
+        for (PooledBuffer taken = first; taken != null; taken = taken.next) {
+            if (taken == closeFrame.get()) {
+                closeQueued = true;
+                release(taken.next, new ClosedChannelException());
+                taken.next = null;
+                last = taken;
+                break;
+            }
+        }
+        if (pendingTail == null) {
+            pendingHead = first;
+        } else {
+            pendingTail.next = first;
+        }
+        pendingTail = last;
+    }
+
+    // Move offered control frames in front of the pending data frames, behind one already partly written
+    private void takeControl() {
+        PooledBuffer frame = incomingControl.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        if (closeQueued) {
+            release(frame, new ClosedChannelException());
+            return;
+        }
+        PooledBuffer last = frame;
+        PooledBuffer first = reverse(frame);
+        PooledBuffer rest;
+        if (headStarted) {
+            rest = pendingHead.next;
+            pendingHead.next = first;
+        } else {
+            rest = pendingHead;
+            pendingHead = first;
+        }
+        last.next = rest;
+        if (rest == null) {
+            pendingTail = last;
+        }
+    }
+
+    private static PooledBuffer reverse(PooledBuffer frame) {
+        PooledBuffer reversed = null;
+        while (frame != null) {
+            PooledBuffer next = frame.next;
+            frame.next = reversed;
+            reversed = frame;
+            frame = next;
+        }
+        return reversed;
+    }
+
+    private static boolean isClose(final PooledBuffer frame) {
+        ByteBuffer buffer = frame.buffer();
+        return (buffer.get(buffer.position()) & 0x0F) == OpCode.CONNECTION_CLOSE.value;
+    }
+
+    /**
+     * Release everything queued, frames offered from now on are released right away.
+     */
+    void close() {
+        closed = true;
+        releaseIncoming();
+        if (scheduled.compareAndSet(false, true)) {
+            releasePending();
+        } else if (awaitingTransport.compareAndSet(true, false)) {
+            // The transport may never ask for another drain, so run a last one to release what is pending
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                releasePending();
+            }
+        }
+        signalWritable();
+    }
+
+    private void releaseIncoming() {
+        release(incoming.getAndSet(null), new ClosedChannelException());
+        release(incomingControl.getAndSet(null), new ClosedChannelException());
+    }
+
+    private void releasePending() {
+        release(pendingHead, new ClosedChannelException());
+        pendingHead = null;
+        pendingTail = null;
+        headStarted = false;
+    }
+
+    private void release(PooledBuffer frame, final Throwable cause) {
+        while (frame != null) {
+            PooledBuffer next = frame.next;
+            frame.next = null;
+            pendingBytes.addAndGet(-frame.buffer().remaining());
+            complete(frame, cause);
+            frame = next;
+        }
+    }
+
+    private static void complete(final PooledBuffer frame, final Throwable cause) {
+        CompletableFuture<Void> promise = frame.promise;
+        frame.promise = null;
+        frame.release();
+        if (promise != null) {
+            if (cause == null) {
+                promise.complete(null);
+            } else {
+                promise.completeExceptionally(cause);
+            }
+        }
+    }
+}
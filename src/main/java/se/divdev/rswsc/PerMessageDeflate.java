@@ -0,0 +1,113 @@
+package se.divdev.rswsc;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options for the permessage-deflate extension (RFC 7692), offered to the server during the handshake.
+ * <p>
+ * The JDK deflater always uses a 32 KB window. If the server limits the client window to less than that
+ * ({@code client_max_window_bits} below 15), outgoing messages are sent uncompressed, which the extension
+ * allows. Incoming messages are inflated whatever window the server uses.
+ */
+public final class PerMessageDeflate {
+
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+
+    int serverMaxWindowBits;
+
+    boolean clientNoContextTakeover;
+
+    boolean serverNoContextTakeover;
+
+    int compressionThreshold;
+
+    int compressionLevel;
+
+    private PerMessageDeflate() {
+    }
+
+    public static PerMessageDeflate newConfig() {
+        PerMessageDeflate config = new PerMessageDeflate();
+        config.compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        config.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        return config;
+    }
+
+    private PerMessageDeflate copy() {
+        PerMessageDeflate copy = new PerMessageDeflate();
+        copy.serverMaxWindowBits = serverMaxWindowBits;
+        copy.clientNoContextTakeover = clientNoContextTakeover;
+        copy.serverNoContextTakeover = serverNoContextTakeover;
+        copy.compressionThreshold = compressionThreshold;
+        copy.compressionLevel = compressionLevel;
+        return copy;
+    }
+
+    /**
+     * Ask the server to use a window of at most 2^bits bytes, between 8 and 15.
+     */
+    public PerMessageDeflate withServerMaxWindowBits(final int serverMaxWindowBits) {
+        if (serverMaxWindowBits < 8 || serverMaxWindowBits > 15) {
+            throw new IllegalArgumentException("Window bits must be between 8 and 15: " + serverMaxWindowBits);
+        }
+        PerMessageDeflate copy = copy();
+        copy.serverMaxWindowBits = serverMaxWindowBits;
+        return copy;
+    }
+
+    /**
+     * Compress every outgoing message on its own, trading ratio for not keeping a deflater per connection.
+     */
+    public PerMessageDeflate withClientNoContextTakeover(final boolean clientNoContextTakeover) {
+        PerMessageDeflate copy = copy();
+        copy.clientNoContextTakeover = clientNoContextTakeover;
+        return copy;
+    }
+
+    /**
+     * Ask the server to compress every message on its own.
+     */
+    public PerMessageDeflate withServerNoContextTakeover(final boolean serverNoContextTakeover) {
+        PerMessageDeflate copy = copy();
+        copy.serverNoContextTakeover = serverNoContextTakeover;
+        return copy;
+    }
+
+    /**
+     * Messages smaller than this number of bytes are sent uncompressed.
+     */
+    public PerMessageDeflate withCompressionThreshold(final int compressionThreshold) {
+        PerMessageDeflate copy = copy();
+        copy.compressionThreshold = compressionThreshold;
+        return copy;
+    }
+
+    /**
+     * Deflater level, 0 to 9 or -1 for the default.
+     */
+    public PerMessageDeflate withCompressionLevel(final int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        PerMessageDeflate copy = copy();
+        copy.compressionLevel = compressionLevel;
+        return copy;
+    }
+
+    /**
+     * Value of the {@code Sec-WebSocket-Extensions} request header
+     */
+    String offer() {
+        StringBuilder offer = new StringBuilder(DeflateCodec.EXTENSION_NAME).append("; client_max_window_bits");
+        if (serverMaxWindowBits > 0) {
+            offer.append("; server_max_window_bits=").append(serverMaxWindowBits);
+        }
+        if (clientNoContextTakeover) {
+            offer.append("; client_no_context_takeover");
+        }
+        if (serverNoContextTakeover) {
+            offer.append("; server_no_context_takeover");
+        }
+        return offer.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Payloads of the automatic pings of a connection, and the round trip times measured from the pongs
+ * answering them.
+ * <p>
+ * A ping carries a marker, its sequence number and the time it was sent, all of which the pong echoes
+ * back, so nothing has to be remembered per ping. Pongs to pings sent by the application do not carry
+ * the marker and are ignored.
+ */
+class PingTracker {
+
+    private static final int MARKER = 0x72737773;
+
+    static final int PAYLOAD_SIZE = Integer.BYTES + 2 * Long.BYTES;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+
+    // Highest sequence answered so far, only written by the thread reading the connection
+    private volatile long answered;
+
+    // Pong arriving in parts, sized for the largest control frame payload, only touched by the reading thread
+    private final ByteBuffer partialPong = ByteBuffer.allocate(125);
+
+    /**
+     * Payload of the next ping, stamped with the current time
+     *
+     * @param sequence from {@link #nextSequence()}
+     */
+    static byte[] payload(final long sequence) {
+        return ByteBuffer.allocate(PAYLOAD_SIZE)
+                .putInt(MARKER)
+                .putLong(sequence)
+                .putLong(System.nanoTime())
+                .array();
+    }
+
+    long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    boolean isAnswered(final long sequence) {
+        return answered >= sequence;
+    }
+
+    /**
+     * Match a pong, the payload is left untouched
+     *
+     * @return the round trip time in nanoseconds, or -1 if the pong does not answer one of our pings
+     */
+    long onPong(final ByteBuffer payload) {
+        int start = payload.position();
+        if (payload.remaining() != PAYLOAD_SIZE || payload.getInt(start) != MARKER) {
+            return -1;
+        }
+        long sequence = payload.getLong(start + Integer.BYTES);
+        long sentAt = payload.getLong(start + Integer.BYTES + Long.BYTES);
+        long roundTrip = System.nanoTime() - sentAt;
+        if (sequence <= 0 || sequence > this.sequence.get() || roundTrip < 0) {
+            return -1;
+        }
+        if (sequence > answered) {
+            answered = sequence;
+        }
+        roundTrips.record(roundTrip);
+        return roundTrip;
+    }
+
+    /**
+     * Match a pong that may arrive in several parts, as its frame crosses reads. The part is left untouched.
+     *
+     * @return the round trip time in nanoseconds once the last part has arrived, otherwise -1
+     */
+    long onPongPart(final ByteBuffer part, final boolean endOfFrame) {
+        if (endOfFrame && partialPong.position() == 0) {
+            return onPong(part);
+        }
+        if (part.remaining() <= partialPong.remaining()) {
+            partialPong.put(part.duplicate());
+        }
+        if (!endOfFrame) {
+            return -1;
+        }
+        partialPong.flip();
+        long roundTrip = onPong(partialPong);
+        partialPong.clear();
+        return roundTrip;
+    }
+
+    LatencyHistogram roundTrips() {
+        return roundTrips;
+    }
+}
@@ -0,0 +1,84 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer borrowed from a {@link BufferPool}.
+ * <p>
+ * Whoever holds a reference must call {@link #release()} exactly once when done, and {@link #retain()}
+ * before handing the buffer to someone who will release it independently.
+ */
+public final class PooledBuffer {
+
+    private final BufferPool pool;
+
+    final BufferPool.SizeClass sizeClass;
+
+    private final ByteBuffer buffer;
+
+    private final AtomicInteger references = new AtomicInteger();
+
+    BufferPool.LeakTracker tracker;
+
+    // Link to the next frame while queued for writing
+    PooledBuffer next;
+
+    // Completed once the frame has been written, set on the last frame of a message
+    CompletableFuture<Void> promise;
+
+    PooledBuffer(final BufferPool pool, final BufferPool.SizeClass sizeClass, final ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    void acquired(final int capacity) {
+        buffer.clear().limit(capacity);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        references.set(1);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int references() {
+        return references.get();
+    }
+
+    public PooledBuffer retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Buffer already released");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /**
+     * Drop one reference, returning the buffer to its pool when it was the last one
+     *
+     * @return true if the buffer went back to the pool
+     */
+    public boolean release() {
+        int count = references.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Buffer already released");
+        }
+        if (tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+        pool.released(this);
+        return true;
+    }
+}
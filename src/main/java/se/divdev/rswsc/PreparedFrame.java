@@ -0,0 +1,65 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A complete, masked frame encoded once to be sent any number of times, on any number of connections, with
+ * {@link RswsClient#send(PreparedFrame)}.
+ * <p>
+ * Meant for messages repeated verbatim, like subscriptions and heartbeats. Every send of a prepared frame
+ * reuses its masking key, and it always goes out uncompressed and unfragmented.
+ */
+public final class PreparedFrame {
+
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private final OpCode opCode;
+
+    private final ByteBuffer frame;
+
+    private PreparedFrame(final OpCode opCode, final ByteBuffer frame) {
+        this.opCode = opCode;
+        this.frame = frame;
+    }
+
+    public static PreparedFrame text(final CharSequence text) {
+        return of(OpCode.TEXT, text.toString().getBytes(StandardCharsets.UTF_8), MaskKeyGenerator.random());
+    }
+
+    public static PreparedFrame binary(final byte[] payload) {
+        return of(OpCode.BINARY, payload, MaskKeyGenerator.random());
+    }
+
+    /**
+     * Encode the payload as a single final frame, masked with the next key of the generator
+     */
+    public static PreparedFrame of(final OpCode opCode, final byte[] payload, final MaskKeyGenerator maskKeyGenerator) {
+        if (opCode == OpCode.CONTINUATION || opCode == OpCode.UNKNOWN) {
+            throw new IllegalArgumentException("Not a message: " + opCode);
+        }
+        if (opCode.isControl() && payload.length > MAX_CONTROL_PAYLOAD) {
+            throw new IllegalArgumentException("Control frame payload larger than " + MAX_CONTROL_PAYLOAD + " bytes: " + payload.length);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FrameEncoder.headerSize(payload.length, true) + payload.length);
+        FrameEncoder.encode(frame, true, opCode, true, maskKeyGenerator.nextMask(), payload, 0, payload.length);
+        frame.flip();
+        return new PreparedFrame(opCode, frame);
+    }
+
+    public OpCode opCode() {
+        return opCode;
+    }
+
+    /**
+     * Size of the encoded frame, header included
+     */
+    public int size() {
+        return frame.capacity();
+    }
+
+    // A read only view of its own per send, as writing advances the position
+    ByteBuffer frame() {
+        return frame.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,108 @@
+package se.divdev.rswsc;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets the consumer of incoming messages stop the client reading from the socket.
+ * <p>
+ * The gate is open while it has been opened and the event dispatcher is not holding it shut, see
+ * {@link #backlog(boolean)}. The two are independent, so neither undoes the other.
+ * <p>
+ * While the gate is shut, nothing more is read, so the kernel receive window fills up and TCP flow control
+ * holds back the server, instead of messages piling up on the heap. Frames already read are still
+ * delivered. Pings and close frames are not read either, so a pong timeout may end the connection while the
+ * gate stays shut.
+ */
+class ReadGate {
+
+    // A lock rather than a monitor, so waiting for it does not pin the carrier of a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition opened = lock.newCondition();
+
+    private volatile boolean open;
+
+    // Held shut by the event dispatcher while the handler is behind
+    private volatile boolean backlogged;
+
+    // Resumes reading on the non-blocking transport, null for the blocking one
+    private volatile Runnable openListener;
+
+    ReadGate(final boolean open) {
+        this.open = open;
+    }
+
+    boolean isOpen() {
+        return open && !backlogged;
+    }
+
+    void open() {
+        if (open) {
+            return;
+        }
+        open = true;
+        if (!backlogged) {
+            opened();
+        }
+    }
+
+    /**
+     * Hold the gate shut while the handler is behind, or stop holding it
+     */
+    void backlog(final boolean backlogged) {
+        this.backlogged = backlogged;
+        if (!backlogged && open) {
+            opened();
+        }
+    }
+
+    private void opened() {
+        lock.lock();
+        try {
+            opened.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        Runnable listener = openListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    void shut() {
+        open = false;
+    }
+
+    void onOpen(final Runnable listener) {
+        this.openListener = listener;
+    }
+
+    /**
+     * Wait for the gate to open, for at most the given time
+     */
+    void awaitOpen(final long timeout, final TimeUnit unit) throws InterruptedIOException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!isOpen() && nanos > 0) {
+                nanos = opened.awaitNanos(nanos);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for demand");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called once the connection is gone, in order with the incoming events delivered before it
+     *
+     * @param cause null if the connection was closed cleanly
+     */
+    void onClosed(final Throwable cause) {
+    }
+}
@@ -7,31 +7,76 @@ import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
 import static se.divdev.rswsc.WebSocketUtils.SEC_WEBSOCKET_ACCEPT_HEADER;
+import static se.divdev.rswsc.WebSocketUtils.SEC_WEBSOCKET_EXTENSIONS_HEADER;
 import static se.divdev.rswsc.WebSocketUtils.SEC_WEBSOCKET_KEY_HEADER;
 
 public class RswsClient implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RswsClient.class);
 
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    private static final int MIN_STREAM_CHUNK_SIZE = 8192;
+
+    private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // How often a read loop held back by its gate checks whether the client is still running
+    private static final long READ_GATE_CHECK_MILLIS = 100;
+
+    private static final long MESSAGE_LOCK_CHECK_MILLIS = 10;
+
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+    private static final int STATUS_INVALID_PAYLOAD = 1007;
+
+    private static final int STATUS_MESSAGE_TOO_BIG = 1009;
+
+    private static final int STATUS_INTERNAL_ERROR = 1011;
+
+    private static final ThreadLocal<CharsetEncoder> UTF8_ENCODERS = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
     private final URI uri;
 
     private final ScheduledExecutorService executorService;
 
+    // Runs the read loop, the writer and event dispatch, the executor service itself unless on virtual threads
+    private final ExecutorService taskExecutor;
+
     private final WebSocketEvent eventHandler;
 
     private final boolean autoRespondToPing;
@@ -46,55 +91,245 @@ public class RswsClient implements Closeable {
 
     private final Duration pingInterval;
 
+    private final Duration pongTimeout;
+
+    private final PingTracker pingTracker = new PingTracker();
+
+    private final HashedWheelTimer timer;
+
+    // Zero when not detecting idleness
+    private final long readIdleTimeoutNanos;
+
+    private final long writeIdleTimeoutNanos;
+
+    private final Duration closeTimeout;
+
+    private final long connectTimeoutNanos;
+
+    private final long connectAttemptDelayNanos;
+
+    private final Duration handshakeTimeout;
+
+    private final Runnable readIdleCheck = () -> checkIdle(IdleState.READER_IDLE);
+
+    private final Runnable writeIdleCheck = () -> checkIdle(IdleState.WRITER_IDLE);
+
+    private volatile long lastReadAt;
+
+    private volatile long lastWriteAt;
+
+    private volatile HashedWheelTimer.Timeout pingTimeout;
+
+    private volatile HashedWheelTimer.Timeout readIdleTimeout;
+
+    private volatile HashedWheelTimer.Timeout writeIdleTimeout;
+
+    private volatile HashedWheelTimer.Timeout closeTimeoutTimer;
+
+    private final EventLoopGroup eventLoopGroup;
+
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    private final BufferPool bufferPool;
+
+    // Direct on plain connections, so mapped files are masked straight into buffers the socket takes as they are
+    private final BufferPool fileBufferPool;
+
+    private final MaskKeyGenerator maskKeyGenerator;
+
+    private final FrameInterceptor[] interceptors;
+
+    private final EventDispatcher dispatcher;
+
+    private final int maxWriteBatchSize;
+
+    private final Duration maxWriteBatchLatency;
+
+    private final long lowWaterMark;
+
+    private final long highWaterMark;
+
+    private final BackpressurePolicy backpressurePolicy;
+
+    private final PerMessageDeflate perMessageDeflate;
+
+    // Negotiated permessage-deflate, null if not in use
+    private volatile DeflateCodec deflateCodec;
+
+    // True while the incoming data message being read is compressed
+    private boolean inflating;
+
+    // True if data fragments are handed to the handler as views of direct buffers rather than arrays
+    private final boolean deliverBuffers;
+
+    // True if fragments are handled before the read buffer is reused, so they can be delivered straight from it
+    private final boolean borrowReadBuffer;
+
+    // Reassembles whole messages for onMessage, null if fragments are delivered as they come
+    private final MessageAssembler assembler;
+
+    // Validates incoming text as it is read, null if text is validated while decoded for onText
+    private final Utf8Validator textValidator;
+
+    // True while the incoming data message being read is text that needs validating
+    private boolean validatingText;
+
+    // Channel the incoming data message being read is streamed into, null if it is delivered as usual
+    private WritableByteChannel messageChannel;
+
+    // Decodes text for onText on the delivering side, null unless text decoding is enabled
+    private final TextDecoder textDecoder;
+
+    // True while the data message being delivered is text, only touched by the dispatcher
+    private boolean deliveringText;
+
+    private final ClientMetrics metrics;
+
+    // Holds back reads while the consumer of incoming messages has no demand, null if reads never stop
+    private final ReadGate readGate;
+
+    // Held while the frames of a data message are queued, so concurrent messages never interleave. Fair, so senders take turns
+    private final ReentrantLock messageLock = new ReentrantLock(true);
+
+    // Set while the sender holding the message lock waits for the write buffer to drain
+    private volatile boolean awaitingWritable;
+
+    // Frames of the incoming data message being read so far
+    private int fragments;
+
+    private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+
     private volatile boolean running = true;
 
+    // Why the connection was given up on from this side, reported instead of the resulting read error
+    private volatile IOException failure;
+
     private IO io;
 
+    private NioConnection connection;
+
+    // Read buffer of the blocking transport between the handshake and run(), holding any bytes read past the response
+    private final AtomicReference<PooledBuffer> handshakeBuffer = new AtomicReference<>();
+
+    private volatile OutboundQueue outbound;
+
     private final int port;
 
-    RswsClient(final URI uri,
-               final ScheduledExecutorService executorService,
-               final WebSocketEvent eventHandler,
-               final boolean autoRespondToPing,
-               final int maxFrameSize,
-               final Supplier<SSLSocketFactory> sslSocketFactorySupplier,
-               final String httpVersion,
+    RswsClient(final RswsClientBuilder builder,
                final Map<String, String> headers,
-               final int port,
-               final Duration pingInterval) {
-        this.uri = uri;
+               final ScheduledExecutorService executorService,
+               final ExecutorService taskExecutor,
+               final int port) {
+        this.uri = builder.uri;
         this.executorService = executorService;
-        this.eventHandler = eventHandler;
-        this.autoRespondToPing = autoRespondToPing;
-        this.maxFrameSize = maxFrameSize;
-        this.sslSocketFactorySupplier = sslSocketFactorySupplier;
-        this.httpVersion = httpVersion;
+        this.taskExecutor = taskExecutor;
+        this.eventHandler = builder.eventHandler;
+        this.autoRespondToPing = builder.autoRespondToPing;
+        this.maxFrameSize = builder.maxFrameSize;
+        this.sslSocketFactorySupplier = builder.sslSocketFactorySupplier;
+        this.httpVersion = builder.httpVersion;
         this.headers = headers;
         this.port = port;
-        this.pingInterval = pingInterval;
+        this.pingInterval = builder.pingInterval;
+        this.pongTimeout = builder.pongTimeout;
+        this.timer = builder.timer;
+        this.readIdleTimeoutNanos = builder.readIdleTimeout == null ? 0 : builder.readIdleTimeout.toNanos();
+        this.writeIdleTimeoutNanos = builder.writeIdleTimeout == null ? 0 : builder.writeIdleTimeout.toNanos();
+        this.closeTimeout = builder.closeTimeout;
+        this.connectTimeoutNanos = builder.connectTimeout == null ? 0 : builder.connectTimeout.toNanos();
+        this.connectAttemptDelayNanos = builder.connectAttemptDelay.toNanos();
+        this.handshakeTimeout = builder.handshakeTimeout;
+        this.eventLoopGroup = builder.eventLoopGroup;
+        this.bufferPool = builder.bufferPool;
+        this.fileBufferPool = bufferPool.isDirect() || !uri.getScheme().equalsIgnoreCase("ws") ? bufferPool : BufferPool.direct();
+        this.maskKeyGenerator = builder.maskKeyGenerator;
+        this.interceptors = builder.interceptors;
+        this.maxWriteBatchSize = builder.maxWriteBatchSize;
+        this.maxWriteBatchLatency = builder.maxWriteBatchLatency;
+        this.lowWaterMark = builder.lowWaterMark;
+        this.highWaterMark = builder.highWaterMark;
+        this.backpressurePolicy = builder.backpressurePolicy;
+        this.perMessageDeflate = builder.perMessageDeflate;
+        this.metrics = builder.metrics;
+        // Always gated when events are queued, so a full queue can pause reading
+        this.readGate = builder.readGate != null || builder.dispatchMode != DispatchMode.ORDERED
+                ? builder.readGate
+                : new ReadGate(true);
+        this.deliverBuffers = bufferPool.isDirect();
+        this.borrowReadBuffer = builder.dispatchMode == DispatchMode.CALLER_RUNS;
+        this.assembler = builder.aggregateMessages
+                ? new MessageAssembler(bufferPool, builder.maxMessageSize, borrowReadBuffer)
+                : null;
+        this.textDecoder = builder.decodeText ? new TextDecoder() : null;
+        this.textValidator = builder.decodeText ? null : new Utf8Validator();
+        this.dispatcher = new EventDispatcher(builder.dispatchMode, builder.dispatchQueueSize, taskExecutor, new EventDispatcher.Sink() {
+            @Override
+            public void deliver(final OpCode opCode, final boolean finalFragment, final byte[] payload) {
+                RswsClient.this.deliver(opCode, finalFragment, payload);
+            }
+
+            @Override
+            public void deliver(final OpCode opCode, final boolean finalFragment, final ByteBuffer payload) {
+                RswsClient.this.deliver(opCode, finalFragment, payload);
+            }
+
+            @Override
+            public void deliver(final WebSocketMessage message) {
+                RswsClient.this.deliver(message);
+            }
+        }, metrics, readGate);
     }
 
     public void disconnect() throws IOException {
         running = false;
         send(OpCode.CONNECTION_CLOSE);
+        if (connection != null) {
+            connection.closeWhenFlushed();
+        }
+        scheduleCloseTimeout();
     }
 
     @Override
     public void close() throws IOException {
-        if (isAlive()) {
+        // Nothing to say goodbye over when the handshake failed
+        if (isAlive() && outbound != null) {
             disconnect();
         }
-        executorService.shutdownNow();
+        if (eventLoopGroup == null || !eventLoopGroup.owns(executorService)) {
+            executorService.shutdownNow();
+        }
+        if (taskExecutor != executorService && (eventLoopGroup == null || !eventLoopGroup.owns(taskExecutor))) {
+            taskExecutor.shutdownNow();
+        }
+        if (connection != null) {
+            connection.close(null);
+        }
+        if (outbound != null) {
+            outbound.close();
+        }
+        if (deflateCodec != null) {
+            deflateCodec.closeOutbound();
+        }
+        PooledBuffer handshakeBuffer = this.handshakeBuffer.getAndSet(null);
+        if (handshakeBuffer != null) {
+            handshakeBuffer.release();
+        }
         IO.close(io);
         running = false;
+        cancelTimers();
     }
 
-    private Socket createSocket() throws IOException {
+    private boolean useEventLoop() {
+        return eventLoopGroup != null && uri.getScheme().equalsIgnoreCase("ws");
+    }
+
+    private Socket createSocket(final SocketChannel channel) throws IOException {
         switch (uri.getScheme().toLowerCase()) {
             case "ws":
-                return new Socket(uri.getHost(), port);
+                // Channel backed, so writes can be gathered
+                return channel.socket();
             case "wss":
-                Socket socket = sslSocketFactorySupplier.get().createSocket(uri.getHost(), port);
+                Socket socket = sslSocketFactorySupplier.get().createSocket(channel.socket(), uri.getHost(), port, true);
                 ((SSLSocket) socket).startHandshake();
                 return socket;
             default:
@@ -103,8 +338,22 @@ public class RswsClient implements Closeable {
     }
 
     public RswsClient connect() throws IOException {
+        long started = System.nanoTime();
+        HashedWheelTimer.Timeout handshakeDeadline = null;
+        AtomicBoolean handshakeTimedOut = new AtomicBoolean();
         try {
-            io = new IO(createSocket());
+            if (!uri.getScheme().equalsIgnoreCase("ws") && !uri.getScheme().equalsIgnoreCase("wss")) {
+                throw new IllegalArgumentException(uri.getScheme() + " is not implemented");
+            }
+            SocketChannel channel = Connector.connect(uri.getHost(), port, connectAttemptDelayNanos, connectTimeoutNanos);
+            if (handshakeTimeout != null) {
+                // Closing the channel is the one way to break out of a blocking read of either kind
+                handshakeDeadline = timer.schedule(() -> {
+                    handshakeTimedOut.set(true);
+                    IO.close(channel);
+                }, handshakeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
+            io = new IO(createSocket(channel), bufferPool);
             LOGGER.debug("Socket connected: {}", io.isAlive());
 
             io.println("GET " + uri + " " + httpVersion);
@@ -114,22 +363,129 @@ public class RswsClient implements Closeable {
             io.lf();
             io.commit();
 
-            readAndValidateInitialResponse();
-            enablePing();
+            PooledBuffer readBuffer = bufferPool.acquire(readBufferSize());
+            try {
+                readAndValidateInitialResponse(readBuffer.buffer());
+            } catch (Exception e) {
+                readBuffer.release();
+                throw e;
+            }
+            if (handshakeDeadline != null && !handshakeDeadline.cancel()) {
+                readBuffer.release();
+                throw handshakeTimeoutException();
+            }
+            metrics.handshake(System.nanoTime() - started);
+            if (useEventLoop()) {
+                connection = new NioConnection(io.socket.getChannel(), eventLoopGroup.next(), this, readBuffer);
+                outbound = connection.outbound();
+            } else {
+                handshakeBuffer.set(readBuffer);
+                outbound = newOutboundQueue(new BlockingTransport(), taskExecutor);
+            }
+            startTimers();
             return this;
         } catch (Exception e) {
-            LOGGER.error("Error connecting to {}", uri, e);
+            if (handshakeDeadline != null) {
+                handshakeDeadline.cancel();
+            }
+            // Whatever the closed socket failed with, the deadline is what ended the handshake
+            Exception cause = handshakeTimedOut.get() && !(e instanceof SocketTimeoutException) ? handshakeTimeoutException() : e;
+            LOGGER.error("Error connecting to {}", uri, cause);
             close();
-            throw new IOException(e);
+            throw new IOException(cause);
         }
     }
 
-    private void enablePing() {
+    private SocketTimeoutException handshakeTimeoutException() {
+        return new SocketTimeoutException("Handshake not completed within " + handshakeTimeout.toMillis() + " ms");
+    }
+
+    private void startTimers() {
+        long now = System.nanoTime();
+        lastReadAt = now;
+        lastWriteAt = now;
+        if (readIdleTimeoutNanos > 0) {
+            readIdleTimeout = timer.schedule(readIdleCheck, readIdleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        if (writeIdleTimeoutNanos > 0) {
+            writeIdleTimeout = timer.schedule(writeIdleCheck, writeIdleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
         if (pingInterval == null) {
             LOGGER.info("No ping interval specified");
             return;
         }
-        executorService.scheduleWithFixedDelay(this::ping, pingInterval.toMillis(), pingInterval.toMillis(), TimeUnit.MILLISECONDS);
+        schedulePing();
+    }
+
+    private void schedulePing() {
+        if (running) {
+            pingTimeout = timer.schedule(this::ping, pingInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void cancelTimers() {
+        for (HashedWheelTimer.Timeout timeout : new HashedWheelTimer.Timeout[]{pingTimeout, readIdleTimeout, writeIdleTimeout, closeTimeoutTimer}) {
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    // Runs on the timer, checking whether a side of the connection has been idle since the last check
+    private void checkIdle(final IdleState state) {
+        if (!running) {
+            return;
+        }
+        boolean reader = state == IdleState.READER_IDLE;
+        long timeout = reader ? readIdleTimeoutNanos : writeIdleTimeoutNanos;
+        long delay = timeout - (System.nanoTime() - (reader ? lastReadAt : lastWriteAt));
+        if (delay <= 0) {
+            signalIdle(state);
+            delay = timeout;
+        }
+        HashedWheelTimer.Timeout next = timer.schedule(reader ? readIdleCheck : writeIdleCheck, delay, TimeUnit.NANOSECONDS);
+        if (reader) {
+            readIdleTimeout = next;
+        } else {
+            writeIdleTimeout = next;
+        }
+    }
+
+    private void signalIdle(final IdleState state) {
+        if (eventHandler == null) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                boolean marked = EventDispatcher.markHandlerThread();
+                try {
+                    eventHandler.onIdle(state);
+                } catch (Exception e) {
+                    LOGGER.error("Error while signalling idleness", e);
+                } finally {
+                    EventDispatcher.unmarkHandlerThread(marked);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Executor shut down, not signalling {}", state);
+        }
+    }
+
+    // Bounds the wait for the server to close the connection once this side has sent its close frame
+    private void scheduleCloseTimeout() {
+        if (closeTimeout == null || closeTimeoutTimer != null) {
+            return;
+        }
+        closeTimeoutTimer = timer.schedule(() -> {
+            if (io != null && io.isAlive()) {
+                LOGGER.debug("No close from {} within {} ms, closing", uri, closeTimeout.toMillis());
+                if (connection != null) {
+                    connection.close(null);
+                } else {
+                    IO.close(io);
+                }
+            }
+        }, closeTimeout.toNanos(), TimeUnit.NANOSECONDS);
     }
 
     public RswsClient configureSocket(final Consumer<Socket> socketConsumer) {
@@ -137,29 +493,50 @@ public class RswsClient implements Closeable {
         return this;
     }
 
-    private Pattern compile(final String pattern) {
-        String escaped = pattern.replace("+", "\\+");
-        return Pattern.compile(escaped, Pattern.CASE_INSENSITIVE);
-    }
-
-    private void readAndValidateInitialResponse() throws IOException {
+    /**
+     * Read the response to the upgrade request into the buffer, leaving any bytes read past it at the start
+     * of the buffer, as if just read, for the frame decoder to pick up.
+     */
+    private void readAndValidateInitialResponse(final ByteBuffer buffer) throws IOException {
         LOGGER.debug("Waiting for initial response:");
-        String initialResponse = new String(io.read());
-        LOGGER.debug("Read {} bytes: {}", initialResponse.length(), initialResponse);
+        HandshakeResponse response = new HandshakeResponse();
+        boolean complete = false;
+        while (!complete) {
+            if (io.read(buffer) < 0) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            buffer.flip();
+            complete = response.parse(buffer);
+            buffer.compact();
+        }
+        LOGGER.debug("Read response with {} bytes following: {}", buffer.position(), response);
 
-        String[] lines = initialResponse.split("\r\n|\n");
         String webSocketAccept = WebSocketUtils.generateSecWebSocketAccept(headers.get(SEC_WEBSOCKET_KEY_HEADER));
+        List<String> missingResponseLines = new ArrayList<>();
+        if (!response.hasStatus(httpVersion, 101)) {
+            missingResponseLines.add(httpVersion + " 101");
+        }
+        if (!webSocketAccept.equals(response.header(SEC_WEBSOCKET_ACCEPT_HEADER))) {
+            missingResponseLines.add(SEC_WEBSOCKET_ACCEPT_HEADER + ": " + webSocketAccept);
+        }
+        if (!response.headerContainsToken("Connection", "Upgrade")) {
+            missingResponseLines.add("Connection: Upgrade");
+        }
+        if (!"websocket".equalsIgnoreCase(response.header("Upgrade"))) {
+            missingResponseLines.add("Upgrade: websocket");
+        }
+        if (!missingResponseLines.isEmpty()) {
+            throw new IOException("Missing lines in initial response: " + missingResponseLines);
+        }
 
-        List<String> expectedResponseLines = new ArrayList<>();
-        expectedResponseLines.add(httpVersion + " 101.*");
-        expectedResponseLines.add(SEC_WEBSOCKET_ACCEPT_HEADER + ": " + webSocketAccept);
-        expectedResponseLines.add("Connection: Upgrade");
-        expectedResponseLines.add("Upgrade: websocket");
-
-        expectedResponseLines.removeIf(line -> Stream.of(lines).anyMatch(response -> compile(line).matcher(response).matches()));
-
-        if (!expectedResponseLines.isEmpty()) {
-            throw new IOException("Missing lines in initial response: " + expectedResponseLines);
+        String extensions = response.header(SEC_WEBSOCKET_EXTENSIONS_HEADER);
+        if (extensions != null) {
+            if (perMessageDeflate == null) {
+                throw new IOException("Server accepted extensions that were not offered: " + extensions);
+            }
+            deflateCodec = DeflateCodec.negotiate(perMessageDeflate, extensions, readBufferSize());
+            decoder.allowCompressedFrames();
+            LOGGER.debug("Negotiated extension: {}", extensions);
         }
     }
 
@@ -168,126 +545,869 @@ public class RswsClient implements Closeable {
     }
 
     public CompletableFuture<Void> runAsync() {
-        return CompletableFuture.runAsync(this::run, executorService);
-    }
-
-    private BiConsumer<Boolean, byte[]> resolveFunction(final WebSocketFrame frame) {
-        if (eventHandler == null) {
-            return (finalFragment, payload) -> LOGGER.warn("Incoming event, but no handler installed. Final: {}, Payload size: {}", finalFragment, payload.length);
-        }
-        if (frame.isPingFrame()) {
-            return this::onPing;
-        } else if (frame.isPongFrame()) {
-            return eventHandler::onPong;
+        if (connection != null) {
+            connection.register();
+            return closeFuture;
         }
-        return eventHandler::onData;
+        return CompletableFuture.runAsync(this::run, taskExecutor);
     }
 
     public void run() {
         if (io == null) {
             throw new IllegalStateException("Not connected!");
         }
+        if (connection != null) {
+            runAsync().join();
+            return;
+        }
+        PooledBuffer readBuffer = handshakeBuffer.getAndSet(null);
+        if (readBuffer == null) {
+            throw new IllegalStateException("Already running or closed");
+        }
+        // Handlers called in line must not wait for the writer, it may need this thread to read
+        boolean marked = EventDispatcher.markHandlerThread();
+        Exception closeCause = null;
         try {
+            ByteBuffer buffer = readBuffer.buffer();
+            if (buffer.position() > 0) {
+                // Frames that arrived together with the handshake response
+                buffer.flip();
+                decoder.decode(buffer, this::onFrame);
+                buffer.clear();
+            }
             while (isAlive()) {
-                WebSocketFrame webSocketFrame = WebSocketFrame.incoming(io.read(maxFrameSize));
-                LOGGER.debug("Incoming FrameInfo: {}", webSocketFrame.toString());
-
-                byte[] processedPayload = webSocketFrame.getPayload();
-
-                BiConsumer<Boolean, byte[]> function = resolveFunction(webSocketFrame);
-                long expectedLengthOfPayload = webSocketFrame.payloadSize();
-                int readLengthOfPayload = 0;
-                long additionalBytesToRead;
-                if (webSocketFrame.isConnectionClose()) {
-                    break;
+                if (readGate != null && !readGate.isOpen()) {
+                    readGate.awaitOpen(READ_GATE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    continue;
                 }
-
-                do {
-                    readLengthOfPayload += processedPayload.length;
-                    additionalBytesToRead = expectedLengthOfPayload - readLengthOfPayload;
-                    boolean finalFrame = webSocketFrame.isFinalFrame() && additionalBytesToRead == 0;
-                    dispatchEvent(function, finalFrame, processedPayload);
-                    processedPayload = webSocketFrame.process(io.read(Math.min(additionalBytesToRead, maxFrameSize)), readLengthOfPayload - processedPayload.length);
-                } while (additionalBytesToRead > 0);
+                if (io.read(buffer) < 0) {
+                    throw new EOFException("Connection closed by peer");
+                }
+                if (readIdleTimeoutNanos > 0) {
+                    lastReadAt = System.nanoTime();
+                }
+                buffer.flip();
+                decoder.decode(buffer, this::onFrame);
+                buffer.clear();
             }
         } catch (Exception e) {
             if (running) {
                 running = false;
-                LOGGER.error("Error in websocket client", e);
-                throw new RuntimeException(e);
+                Exception cause = failure != null ? failure : e;
+                LOGGER.error("Error in websocket client", cause);
+                closeCause = cause;
+                throw new RuntimeException(cause);
             }
         } finally {
+            readBuffer.release();
+            releaseInbound();
+            signalClosed(closeCause);
             IO.close(this);
+            EventDispatcher.unmarkHandlerThread(marked);
         }
     }
 
+    int readBufferSize() {
+        return Math.min(maxFrameSize, READ_BUFFER_SIZE);
+    }
+
+    // Called on the event loop with the bytes of each read
+    void onInbound(final ByteBuffer buffer) throws IOException {
+        if (readIdleTimeoutNanos > 0) {
+            lastReadAt = System.nanoTime();
+        }
+        decoder.decode(buffer, this::onFrame);
+    }
+
+    private void onFrame(final FrameDecoder frame, final ByteBuffer payload, final boolean endOfFrame) throws IOException {
+        if (!running || (interceptors.length > 0 && !interceptInbound(frame, payload, endOfFrame))) {
+            return;
+        }
+        OpCode opCode = frame.getOpCode();
+        if (endOfFrame) {
+            metrics.frameIn(opCode, frame.payloadSize());
+        }
+        if (opCode == OpCode.PONG) {
+            // Timed here rather than on delivery, so the handler and dispatch queue do not add to it
+            long roundTrip = pingTracker.onPongPart(payload, endOfFrame);
+            if (roundTrip >= 0) {
+                metrics.pingRoundTrip(roundTrip);
+            }
+        }
+        if (opCode == OpCode.CONNECTION_CLOSE) {
+            if (endOfFrame) {
+                LOGGER.debug("Connection close received");
+                running = false;
+                if (connection != null) {
+                    connection.closeWhenFlushed();
+                }
+            }
+            return;
+        }
+        boolean endOfMessage = frame.isFinalFrame() && endOfFrame;
+        if (!opCode.isControl()) {
+            if (endOfFrame) {
+                fragments++;
+            }
+            if (endOfMessage) {
+                metrics.messageIn(fragments);
+                fragments = 0;
+            }
+            if (opCode != OpCode.CONTINUATION && frame.payloadOffset() == 0) {
+                inflating = frame.isCompressed();
+                validatingText = textValidator != null && opCode == OpCode.TEXT;
+                messageChannel = eventHandler == null ? null : eventHandler.onMessageStart(opCode);
+            }
+            if (inflating) {
+                deflateCodec.inflate(payload, endOfMessage, (data, last) -> onInflated(opCode, data, last));
+                return;
+            }
+            if (validatingText && !validateText(payload, endOfMessage)) {
+                return;
+            }
+            if (messageChannel != null) {
+                stream(payload, endOfMessage);
+                return;
+            }
+            if (assembler != null) {
+                assemble(opCode, payload, payload.remaining() == frame.payloadSize(), endOfMessage);
+                return;
+            }
+            if (deliverBuffers) {
+                dispatchBuffer(opCode, payload, endOfMessage);
+                return;
+            }
+        }
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        dispatcher.dispatch(opCode, endOfMessage, data);
+    }
+
+    private boolean interceptInbound(final FrameDecoder frame, final ByteBuffer payload, final boolean endOfFrame) {
+        int position = payload.position();
+        int limit = payload.limit();
+        for (FrameInterceptor interceptor : interceptors) {
+            boolean keep = interceptor.onInbound(frame, payload, endOfFrame);
+            payload.limit(limit).position(position);
+            if (!keep) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onInflated(final OpCode opCode, final byte[] data, final boolean last) {
+        if (!running || (validatingText && !validateText(ByteBuffer.wrap(data), last))) {
+            return;
+        }
+        if (messageChannel != null) {
+            stream(ByteBuffer.wrap(data), last);
+        } else if (assembler != null) {
+            assemble(opCode, ByteBuffer.wrap(data), false, last);
+        } else if (deliverBuffers) {
+            // The inflated chunk is already a copy of its own
+            dispatcher.dispatch(opCode, last, ByteBuffer.wrap(data).asReadOnlyBuffer(), null);
+        } else {
+            dispatcher.dispatch(opCode, last, data);
+        }
+    }
+
+    private void assemble(final OpCode opCode, final ByteBuffer content, final boolean wholeFrame, final boolean last) {
+        if (!running) {
+            return;
+        }
+        if (!assembler.fits(content.remaining())) {
+            assembler.discard();
+            fail(STATUS_MESSAGE_TOO_BIG, "Message exceeds the max message size");
+            return;
+        }
+        if (last && wholeFrame && assembler.isEmpty()) {
+            dispatcher.dispatch(assembler.single(opCode, content));
+            return;
+        }
+        assembler.append(opCode, content);
+        if (last) {
+            dispatcher.dispatch(assembler.finish());
+        }
+    }
+
+    // Hand a data fragment over as a view, copied into a pooled buffer unless the handler runs before the read buffer is reused
+    private void dispatchBuffer(final OpCode opCode, final ByteBuffer content, final boolean last) {
+        if (borrowReadBuffer) {
+            dispatcher.dispatch(opCode, last, content.asReadOnlyBuffer(), null);
+            return;
+        }
+        PooledBuffer chunk = bufferPool.acquire(content.remaining());
+        chunk.buffer().put(content).flip();
+        dispatcher.dispatch(opCode, last, chunk.buffer().asReadOnlyBuffer(), chunk);
+    }
+
+    // Write content straight into the message's channel, closing it at the end of the message
+    private void stream(final ByteBuffer content, final boolean last) {
+        WritableByteChannel channel = messageChannel;
+        try {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            if (last) {
+                messageChannel = null;
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Error writing message to its channel", e);
+            closeMessageChannel();
+            fail(STATUS_INTERNAL_ERROR, "Could not store message");
+        }
+    }
+
+    private void closeMessageChannel() {
+        if (messageChannel != null) {
+            IO.close(messageChannel);
+            messageChannel = null;
+        }
+    }
+
+    private boolean validateText(final ByteBuffer content, final boolean last) {
+        if (textValidator.validate(content) && (!last || textValidator.isComplete())) {
+            if (last) {
+                textValidator.reset();
+            }
+            return true;
+        }
+        textValidator.reset();
+        fail(STATUS_INVALID_PAYLOAD, "Invalid UTF-8 in text message");
+        return false;
+    }
+
+    // Close the connection from this side, telling the server why
+    private void fail(final int statusCode, final String reason) {
+        LOGGER.warn("Closing connection with status {}: {}", statusCode, reason);
+        running = false;
+        byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + reasonBytes.length).putShort((short) statusCode).put(reasonBytes);
+        try {
+            send(OpCode.CONNECTION_CLOSE, payload.array());
+        } catch (Exception e) {
+            LOGGER.debug("Error sending close frame", e);
+        }
+        if (connection != null) {
+            connection.closeWhenFlushed();
+        }
+        scheduleCloseTimeout();
+    }
+
+    ReadGate readGate() {
+        return readGate;
+    }
+
+    WebSocketEvent eventHandler() {
+        return eventHandler;
+    }
+
+    // Tell the read gate the connection is gone once everything read before has been delivered
+    private void signalClosed(final Throwable cause) {
+        if (readGate == null) {
+            return;
+        }
+        try {
+            dispatcher.dispatch(() -> readGate.onClosed(cause));
+        } catch (RejectedExecutionException e) {
+            readGate.onClosed(cause);
+        }
+    }
+
+    // Reader side resources, released by the thread reading the connection once it is done
+    private void releaseInbound() {
+        if (deflateCodec != null) {
+            deflateCodec.closeInbound();
+        }
+        if (assembler != null) {
+            assembler.discard();
+        }
+        closeMessageChannel();
+    }
+
+    // Called on the event loop once the non-blocking connection is gone
+    void onConnectionClosed(final Throwable cause) {
+        boolean unexpected = running;
+        running = false;
+        releaseInbound();
+        cancelTimers();
+        IO.close(io);
+        signalClosed(unexpected ? cause : null);
+        if (unexpected && cause != null) {
+            LOGGER.error("Error in websocket client", cause);
+            closeFuture.completeExceptionally(cause);
+        } else {
+            closeFuture.complete(null);
+        }
+    }
+
+    // Automatic ping on the timer, stamped so the round trip can be timed from its pong
     private void ping() {
+        if (!running) {
+            return;
+        }
+        long sequence = pingTracker.nextSequence();
         try {
-            ping(new byte[0]);
+            ping(PingTracker.payload(sequence));
+            if (pongTimeout != null) {
+                timer.schedule(() -> checkPong(sequence), pongTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            }
         } catch (IOException exception) {
             LOGGER.error("Error sending ping", exception);
         }
+        schedulePing();
+    }
+
+    private void checkPong(final long sequence) {
+        if (!running || pingTracker.isAnswered(sequence)) {
+            return;
+        }
+        SocketTimeoutException timeout = new SocketTimeoutException("No pong within " + pongTimeout.toMillis() + " ms");
+        LOGGER.warn("Closing connection to {}: {}", uri, timeout.getMessage());
+        failure = timeout;
+        if (connection != null) {
+            connection.close(timeout);
+        } else {
+            IO.close(io);
+        }
+    }
+
+    /**
+     * Round trip times in nanoseconds of the automatic pings sent every ping interval, measured from sending
+     * a ping until reading its pong. Pings sent with {@link #ping(byte[])} are not timed.
+     */
+    public LatencyHistogram pingRoundTrips() {
+        return pingTracker.roundTrips();
     }
 
-    public void ping(final byte[] payload) throws IOException {
-        send(OpCode.PING, payload);
+    public CompletableFuture<Void> ping(final byte[] payload) throws IOException {
+        return send(OpCode.PING, payload);
     }
 
-    public void pong(final byte[] payload) throws IOException {
-        send(OpCode.PONG, payload);
+    public CompletableFuture<Void> pong(final byte[] payload) throws IOException {
+        return send(OpCode.PONG, payload);
+    }
+
+    /**
+     * Send the text UTF-8 encoded, straight into the frame buffers unless it is to be compressed
+     *
+     * @return future completed once the whole message has been written to the socket
+     */
+    public CompletableFuture<Void> sendText(final CharSequence text) throws IOException {
+        DeflateCodec deflateCodec = this.deflateCodec;
+        if (deflateCodec != null && deflateCodec.shouldCompress(text.length())) {
+            return send(OpCode.TEXT, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        LOGGER.debug("Sending {}", OpCode.TEXT);
+        CompletableFuture<Void> rejected = admit(OpCode.TEXT);
+        if (rejected != null) {
+            return rejected;
+        }
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        CharsetEncoder encoder = UTF8_ENCODERS.get().reset();
+        CharBuffer chars = CharBuffer.wrap(text);
+        lockMessage();
+        try {
+            boolean first = true;
+            while (true) {
+                if (!first) {
+                    awaitWritableIfBlocking();
+                }
+                int chunkSize = (int) Math.max(4, Math.min(maxFrameSize, (long) chars.remaining() * MAX_UTF8_BYTES_PER_CHAR));
+                PooledBuffer frame = bufferPool.acquire(FrameEncoder.MAX_HEADER_SIZE + chunkSize);
+                ByteBuffer buffer = frame.buffer();
+                buffer.position(FrameEncoder.MAX_HEADER_SIZE);
+                // Errors are replaced, so the encoder either takes everything or runs out of room
+                boolean finalFrame = encoder.encode(chars, buffer, true).isUnderflow() && encoder.flush(buffer).isUnderflow();
+                int length = buffer.position() - FrameEncoder.MAX_HEADER_SIZE;
+                int frameStart = FrameEncoder.encodeInPlace(buffer, FrameEncoder.MAX_HEADER_SIZE, length, finalFrame,
+                        first ? OpCode.TEXT : OpCode.CONTINUATION, true, maskKeyGenerator.nextMask());
+                buffer.limit(FrameEncoder.MAX_HEADER_SIZE + length).position(frameStart);
+                if (finalFrame) {
+                    frame.promise = promise;
+                    send(frame);
+                    return promise;
+                }
+                send(frame);
+                first = false;
+            }
+        } finally {
+            messageLock.unlock();
+        }
     }
 
-    public void sendText(final String text) throws IOException {
-        send(OpCode.TEXT, text.getBytes());
+    /**
+     * @return future completed once the whole message has been written to the socket
+     */
+    public CompletableFuture<Void> sendBinary(final byte[] data) throws IOException {
+        return send(OpCode.BINARY, data);
     }
 
-    public void sendBinary(final byte[] data) throws IOException {
-        send(OpCode.BINARY, data);
+    /**
+     * Send a frame encoded ahead of time. Its bytes are written as they are, without copying, masking or
+     * compressing them again.
+     *
+     * @return future completed once the frame has been written to the socket
+     */
+    public CompletableFuture<Void> send(final PreparedFrame prepared) throws IOException {
+        OpCode opCode = prepared.opCode();
+        LOGGER.debug("Sending prepared {}", opCode);
+        CompletableFuture<Void> rejected = admit(opCode);
+        if (rejected != null) {
+            return rejected;
+        }
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        PooledBuffer frame = bufferPool.wrap(prepared.frame());
+        frame.promise = promise;
+        if (opCode.isControl()) {
+            send(frame);
+            return promise;
+        }
+        // Kept from landing between the fragments of a message being sent
+        try {
+            lockMessage();
+        } catch (IOException e) {
+            frame.release();
+            throw e;
+        }
+        try {
+            send(frame);
+            return promise;
+        } finally {
+            messageLock.unlock();
+        }
     }
 
-    private void send(final OpCode opCode, final byte... payload) throws IOException {
+    private CompletableFuture<Void> send(final OpCode opCode, final byte... payload) throws IOException {
         LOGGER.debug("Sending {}", opCode);
-        try (InputStream inputStream = new ByteArrayInputStream(payload)) {
-            send(opCode, inputStream);
+        CompletableFuture<Void> rejected = admit(opCode);
+        if (rejected != null) {
+            return rejected;
+        }
+        if (opCode.isControl()) {
+            PooledBuffer frame = encode(opCode, true, payload, 0, payload.length);
+            CompletableFuture<Void> promise = new CompletableFuture<>();
+            frame.promise = promise;
+            send(frame);
+            return promise;
+        }
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        lockMessage();
+        try {
+            DeflateCodec deflateCodec = this.deflateCodec;
+            if (deflateCodec != null && deflateCodec.shouldCompress(payload.length)) {
+                deflateCodec.deflate(payload, 0, payload.length, (compressed, length, first, last) -> {
+                    PooledBuffer frame = encode(first ? opCode : OpCode.CONTINUATION, last, compressed, 0, length);
+                    if (first) {
+                        frame.buffer().put(0, (byte) (frame.buffer().get(0) | FrameEncoder.RSV1));
+                    }
+                    if (last) {
+                        frame.promise = promise;
+                    }
+                    send(frame);
+                });
+                return promise;
+            }
+            int offset = 0;
+            do {
+                int length = Math.min(payload.length - offset, maxFrameSize);
+                boolean finalFrame = offset + length == payload.length;
+                PooledBuffer frame = encode(offset == 0 ? opCode : OpCode.CONTINUATION, finalFrame, payload, offset, length);
+                if (finalFrame) {
+                    frame.promise = promise;
+                }
+                send(frame);
+                offset += length;
+            } while (offset < payload.length);
+            return promise;
+        } finally {
+            messageLock.unlock();
+        }
+    }
+
+    /**
+     * Send the stream as one message, fragmented into frames of at most the max frame size
+     *
+     * @return future completed once the whole message has been written to the socket
+     */
+    public CompletableFuture<Void> send(final OpCode opCode, final InputStream inputStream) throws IOException {
+        CompletableFuture<Void> rejected = admit(opCode);
+        if (rejected != null) {
+            return rejected;
+        }
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        lockMessage();
+        try {
+            ReadableByteChannel channel = null;
+            boolean first = true;
+            do {
+                if (!first) {
+                    awaitWritableIfBlocking();
+                }
+                // The payload is read straight into the frame buffer, leaving room for the header in front of it
+                int chunkSize = Math.min(maxFrameSize, Math.max(inputStream.available(), MIN_STREAM_CHUNK_SIZE));
+                PooledBuffer frame = bufferPool.acquire(FrameEncoder.MAX_HEADER_SIZE + chunkSize);
+                ByteBuffer buffer = frame.buffer();
+                buffer.position(FrameEncoder.MAX_HEADER_SIZE);
+                int read;
+                try {
+                    if (buffer.hasArray()) {
+                        read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), chunkSize);
+                    } else {
+                        channel = channel == null ? Channels.newChannel(inputStream) : channel;
+                        read = channel.read(buffer);
+                    }
+                } catch (IOException exception) {
+                    frame.release();
+                    throw exception;
+                }
+                boolean finalFrame = inputStream.available() == 0;
+                int length = read > 0 ? read : 0;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Sending frame with length: {}, final: {}", length, finalFrame);
+                }
+                int frameStart = FrameEncoder.encodeInPlace(buffer, FrameEncoder.MAX_HEADER_SIZE, length, finalFrame,
+                        first ? opCode : OpCode.CONTINUATION, true, maskKeyGenerator.nextMask());
+                buffer.limit(FrameEncoder.MAX_HEADER_SIZE + length).position(frameStart);
+                if (finalFrame) {
+                    frame.promise = promise;
+                }
+                send(frame);
+                first = false;
+            } while (inputStream.available() > 0);
+            return promise;
+        } finally {
+            messageLock.unlock();
+        }
+    }
+
+    /**
+     * Send the whole file as one binary message, see {@link #send(OpCode, FileChannel, long, long)}
+     *
+     * @return future completed once the whole message has been written to the socket
+     */
+    public CompletableFuture<Void> sendFile(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return send(OpCode.BINARY, channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Send a region of the file as one message, fragmented into frames of at most the max frame size.
+     * <p>
+     * The region is memory-mapped a window at a time and masked straight from the mapping into direct frame
+     * buffers, so the content is copied once. It is always sent uncompressed. The channel may be closed once
+     * this returns. Whatever the backpressure policy, this waits for the queue to drain below the low
+     * watermark whenever it is above the high one, so only about a high watermark of the file is held in
+     * memory at a time, except on the event loop thread.
+     *
+     * @return future completed once the whole message has been written to the socket
+     */
+    public CompletableFuture<Void> send(final OpCode opCode, final FileChannel channel, final long position, final long count) throws IOException {
+        if (position < 0 || count < 0 || position + count > channel.size()) {
+            throw new IllegalArgumentException("Region " + position + "+" + count + " outside the file of " + channel.size() + " bytes");
+        }
+        LOGGER.debug("Sending {} bytes of file as {}", count, opCode);
+        CompletableFuture<Void> rejected = admit(opCode);
+        if (rejected != null) {
+            return rejected;
+        }
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        // Whole frames per window, so frames never end early at a window boundary
+        long windowSize = Math.max(maxFrameSize, MAP_WINDOW_SIZE / maxFrameSize * maxFrameSize);
+        lockMessage();
+        try {
+            MappedByteBuffer window = null;
+            long sent = 0;
+            do {
+                if (sent > 0) {
+                    awaitWritable();
+                }
+                if (sent < count && (window == null || !window.hasRemaining())) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position + sent, Math.min(windowSize, count - sent));
+                }
+                int length = (int) Math.min(maxFrameSize, count - sent);
+                boolean finalFrame = sent + length == count;
+                int mask = maskKeyGenerator.nextMask();
+                PooledBuffer frame = fileBufferPool.acquire(FrameEncoder.headerSize(length, true) + length);
+                ByteBuffer buffer = frame.buffer();
+                FrameEncoder.encodeHeader(buffer, finalFrame, sent == 0 ? opCode : OpCode.CONTINUATION, true, mask, length);
+                if (length > 0) {
+                    int limit = window.limit();
+                    window.limit(window.position() + length);
+                    Masking.maskCopy(window, buffer, mask, 0);
+                    window.limit(limit);
+                }
+                buffer.flip();
+                if (finalFrame) {
+                    frame.promise = promise;
+                }
+                send(frame);
+                sent += length;
+            } while (sent < count);
+            return promise;
+        } finally {
+            messageLock.unlock();
+        }
+    }
+
+    /**
+     * True unless more than the high watermark of bytes is waiting to be written
+     */
+    public boolean isWritable() {
+        OutboundQueue outbound = this.outbound;
+        return outbound != null && outbound.isWritable();
+    }
+
+    /**
+     * Number of bytes queued but not yet written to the socket
+     */
+    public long pendingWriteBytes() {
+        OutboundQueue outbound = this.outbound;
+        return outbound == null ? 0 : outbound.pendingBytes();
+    }
+
+    // Applies the backpressure policy to a new message, returning a failed future if it is rejected
+    private CompletableFuture<Void> admit(final OpCode opCode) throws IOException {
+        OutboundQueue outbound = this.outbound;
+        if (outbound == null || opCode.isControl() || outbound.isWritable()) {
+            return null;
+        }
+        switch (backpressurePolicy) {
+            case BLOCK:
+                awaitWritableIfBlocking();
+                return null;
+            case FAIL:
+                CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new IOException("Write buffer full, " + outbound.pendingBytes() + " bytes pending"));
+                return rejected;
+            default:
+                return null;
         }
     }
 
-    public void send(final OpCode opCode, final InputStream inputStream) throws IOException {
-        byte[] buffer = new byte[maxFrameSize];
-        int read;
-        boolean first = true;
-        do {
-            read = inputStream.read(buffer);
-            boolean finalFrame = inputStream.available() == 0;
-            WebSocketFrame webSocketFrame = WebSocketFrame.outgoing(first ? opCode : OpCode.CONTINUATION);
-            byte[] dataToSend = new byte[read > 0 ? read : 0];
-            System.arraycopy(buffer, 0, dataToSend, 0, dataToSend.length);
-            LOGGER.debug("Sending frame with length: {}, final: {}", dataToSend.length, finalFrame);
-            send(webSocketFrame.build(finalFrame, dataToSend));
-            first = false;
-        } while (inputStream.available() > 0);
+    private void awaitWritableIfBlocking() throws IOException {
+        if (backpressurePolicy == BackpressurePolicy.BLOCK && !mustNotWait()) {
+            awaitWritable();
+        }
+    }
+
+    // Wait for the write buffer to drain whatever the policy, unless on the event loop doing the writing
+    private void awaitWritable() throws IOException {
+        OutboundQueue outbound = this.outbound;
+        if (outbound == null || (connection != null && connection.inEventLoop())) {
+            return;
+        }
+        boolean holdingMessage = messageLock.isHeldByCurrentThread();
+        awaitingWritable = holdingMessage;
+        try {
+            outbound.awaitWritable();
+        } finally {
+            if (holdingMessage) {
+                awaitingWritable = false;
+            }
+        }
+    }
+
+    // The event loop does the writing, and handler threads may be needed to run the writer or to keep reading
+    private boolean mustNotWait() {
+        return (connection != null && connection.inEventLoop()) || EventDispatcher.isHandlerThread();
+    }
+
+    // Handlers do not queue up behind a sender waiting for the writer, which may need their thread to go on
+    private void lockMessage() throws IOException {
+        if (!mustNotWait()) {
+            messageLock.lock();
+            return;
+        }
+        try {
+            while (!messageLock.tryLock(MESSAGE_LOCK_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (awaitingWritable) {
+                    throw new IOException("Write buffer full, " + pendingWriteBytes() + " bytes pending behind another message");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send");
+        }
+    }
+
+    OutboundQueue newOutboundQueue(final OutboundQueue.Transport transport, final Executor writer) {
+        return new OutboundQueue(transport, writer, executorService, maxWriteBatchSize, maxWriteBatchLatency.toNanos(),
+                lowWaterMark, highWaterMark, this::onWritabilityChanged);
+    }
+
+    private void onWritabilityChanged(final boolean writable) {
+        if (eventHandler == null) {
+            return;
+        }
+        try {
+            eventHandler.onWritabilityChanged(writable);
+        } catch (Exception e) {
+            LOGGER.error("Error while signalling writability", e);
+        }
+    }
+
+    private PooledBuffer encode(final OpCode opCode, final boolean finalFrame, final byte[] payload, final int offset, final int length) {
+        PooledBuffer frame = bufferPool.acquire(FrameEncoder.headerSize(length, true) + length);
+        FrameEncoder.encode(frame.buffer(), finalFrame, opCode, true, maskKeyGenerator.nextMask(), payload, offset, length);
+        frame.buffer().flip();
+        return frame;
+    }
+
+    // Takes ownership of the frame, releasing it once written
+    private void send(final PooledBuffer frame) {
+        OutboundQueue outbound = this.outbound;
+        if (outbound == null) {
+            frame.release();
+            throw new IllegalStateException("Not connected!");
+        }
+        if (interceptors.length > 0 && !interceptOutbound(frame)) {
+            return;
+        }
+        if (writeIdleTimeoutNanos > 0) {
+            lastWriteAt = System.nanoTime();
+        }
+        ByteBuffer buffer = frame.buffer();
+        byte opCode = (byte) (buffer.get(buffer.position()) & 0x0F);
+        boolean control = (opCode & 0x08) != 0;
+        if (metrics == ClientMetrics.NOOP) {
+            outbound.offer(frame, control);
+            return;
+        }
+        metrics.frameOut(OpCode.fromValue(opCode), buffer.remaining());
+        outbound.offer(frame, control);
+        metrics.outboundQueueDepth(outbound.pendingBytes());
     }
 
-    private void send(final byte[] data) {
-        executorService.submit(() -> {
+    // Drops the frame, completing its promise, if an interceptor says so
+    private boolean interceptOutbound(final PooledBuffer frame) {
+        // Read only, the bytes may be shared with other connections, see PreparedFrame
+        ByteBuffer view = frame.buffer().asReadOnlyBuffer();
+        int position = view.position();
+        int limit = view.limit();
+        FrameHeader header = new EncodedFrameHeader(view);
+        for (FrameInterceptor interceptor : interceptors) {
+            boolean keep;
             try {
-                io.write(data);
-                io.commit();
-            } catch (IOException exception) {
+                keep = interceptor.onOutbound(header, view);
+            } catch (RuntimeException e) {
+                frame.release();
+                throw e;
+            }
+            view.limit(limit).position(position);
+            if (!keep) {
+                CompletableFuture<Void> promise = frame.promise;
+                frame.release();
+                if (promise != null) {
+                    promise.complete(null);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writer side of the blocking transport, runs on the executor
+    private final class BlockingTransport implements OutboundQueue.Transport {
+
+        @Override
+        public void write(final ByteBuffer[] buffers, final int offset, final int length) throws IOException {
+            io.write(buffers, offset, length);
+        }
+
+        @Override
+        public void onWriteIncomplete() {
+            // Blocking writes always complete
+        }
+
+        @Override
+        public void onWriteComplete() {
+            // Nothing to do
+        }
+
+        @Override
+        public void onWriteError(final IOException exception) {
+            if (running) {
                 LOGGER.error("Error sending data", exception);
+            } else {
+                LOGGER.debug("Error sending data while closing", exception);
             }
-        });
+        }
     }
 
-    // WebSocket event dispatch
-    private void dispatchEvent(final BiConsumer<Boolean, byte[]> consumer, final boolean finalFragment, final byte[] payload) {
-        executorService.submit(() -> {
+    // WebSocket event dispatch, called by the dispatcher one event at a time
+    private void deliver(final OpCode opCode, final boolean finalFragment, final byte[] payload) {
+        if (eventHandler == null) {
+            LOGGER.warn("Incoming event, but no handler installed. Final: {}, Payload size: {}", finalFragment, payload.length);
+        } else if (opCode == OpCode.PING) {
+            onPing(finalFragment, payload);
+        } else if (opCode == OpCode.PONG) {
+            eventHandler.onPong(finalFragment, payload);
+        } else {
+            if (opCode != OpCode.CONTINUATION) {
+                deliveringText = textDecoder != null && opCode == OpCode.TEXT;
+            }
+            if (deliveringText) {
+                deliverText(ByteBuffer.wrap(payload), finalFragment);
+            } else {
+                eventHandler.onData(finalFragment, payload);
+            }
+        }
+    }
+
+    private void deliver(final OpCode opCode, final boolean finalFragment, final ByteBuffer payload) {
+        if (eventHandler == null) {
+            LOGGER.warn("Incoming event, but no handler installed. Final: {}, Payload size: {}", finalFragment, payload.remaining());
+            return;
+        }
+        if (opCode != OpCode.CONTINUATION) {
+            deliveringText = textDecoder != null && opCode == OpCode.TEXT;
+        }
+        if (deliveringText) {
+            deliverText(payload, finalFragment);
+        } else {
+            eventHandler.onData(finalFragment, payload);
+        }
+    }
+
+    private void deliverText(final ByteBuffer content, final boolean last) {
+        try {
+            textDecoder.decode(content, last);
+        } catch (CharacterCodingException e) {
+            fail(STATUS_INVALID_PAYLOAD, "Invalid UTF-8 in text message");
+            return;
+        }
+        try {
+            eventHandler.onText(textDecoder.chars(), last);
+        } finally {
+            textDecoder.clear();
+        }
+    }
+
+    private void deliver(final WebSocketMessage message) {
+        if (eventHandler == null) {
+            LOGGER.warn("Incoming message, but no handler installed. Size: {}", message.size());
+        } else if (textDecoder != null && message.isText()) {
+            ByteBuffer[] buffers = message.buffers();
             try {
-                consumer.accept(finalFragment, payload);
-            } catch (Exception e) {
-                LOGGER.error("Error while dispatching data", e);
+                for (int i = 0; i < buffers.length; i++) {
+                    textDecoder.decode(buffers[i], i == buffers.length - 1);
+                }
+            } catch (CharacterCodingException e) {
+                fail(STATUS_INVALID_PAYLOAD, "Invalid UTF-8 in text message");
+                return;
             }
-        });
+            try {
+                eventHandler.onText(textDecoder.chars(), true);
+            } finally {
+                textDecoder.clear();
+            }
+        } else {
+            eventHandler.onMessage(message);
+        }
     }
 
     private final ByteArrayOutputStream incomingPingPayload = new ByteArrayOutputStream();
@@ -3,57 +3,146 @@ package se.divdev.rswsc;
 import javax.net.ssl.SSLSocketFactory;
 import java.net.URI;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Supplier;
 
+import static se.divdev.rswsc.WebSocketUtils.SEC_WEBSOCKET_EXTENSIONS_HEADER;
 import static se.divdev.rswsc.WebSocketUtils.SEC_WEBSOCKET_KEY_HEADER;
 
 public class RswsClientBuilder {
 
     private static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+    private static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1024;
+    private static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    private static final long DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+    private static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    // Recommended by RFC 8305
+    static final Duration DEFAULT_CONNECT_ATTEMPT_DELAY = Duration.ofMillis(250);
     private static final String DEFAULT_HTTP_VERSION = "HTTP/1.1";
     private static final Supplier<SSLSocketFactory> DEFAULT_SSL_FACTORY = () -> (SSLSocketFactory) SSLSocketFactory.getDefault();
 
-    private final URI uri;
+    URI uri;
+
+    ScheduledExecutorService executorService;
+
+    WebSocketEvent eventHandler;
+
+    // Set by a publisher of incoming messages to hold back reads until there is demand
+    ReadGate readGate;
+
+    boolean autoRespondToPing;
+
+    int maxFrameSize;
+
+    Supplier<SSLSocketFactory> sslSocketFactorySupplier;
+
+    String httpVersion;
+
+    final Map<String, String> headers;
+
+    Duration pingInterval;
+
+    Duration pongTimeout;
+
+    HashedWheelTimer timer;
+
+    Duration readIdleTimeout;
+
+    Duration writeIdleTimeout;
+
+    Duration closeTimeout;
+
+    Duration connectTimeout;
+
+    Duration connectAttemptDelay;
+
+    Duration handshakeTimeout;
+
+    EventLoopGroup eventLoopGroup;
+
+    BufferPool bufferPool;
+
+    MaskKeyGenerator maskKeyGenerator;
+
+    // Never modified once set, so copies can share it
+    FrameInterceptor[] interceptors;
+
+    DispatchMode dispatchMode;
+
+    int dispatchQueueSize;
+
+    int maxWriteBatchSize;
+
+    Duration maxWriteBatchLatency;
 
-    private final ScheduledExecutorService executorService;
+    long lowWaterMark;
 
-    private final WebSocketEvent eventHandler;
+    long highWaterMark;
 
-    private final boolean autoRespondToPing;
+    BackpressurePolicy backpressurePolicy;
 
-    private final int maxFrameSize;
+    PerMessageDeflate perMessageDeflate;
 
-    private final Supplier<SSLSocketFactory> sslSocketFactorySupplier;
+    boolean aggregateMessages;
 
-    private final String httpVersion;
+    long maxMessageSize;
 
-    private final Map<String, String> headers;
+    boolean decodeText;
 
-    private final Duration pingInterval;
+    boolean virtualThreads;
 
-    private RswsClientBuilder(final URI uri,
-                              final ScheduledExecutorService executorService,
-                              final WebSocketEvent eventHandler,
-                              final boolean autoRespondToPing,
-                              final int maxFrameSize,
-                              final Supplier<SSLSocketFactory> sslSocketFactorySupplier,
-                              final String httpVersion,
-                              final Map<String, String> headers,
-                              final Duration pingInterval) {
+    ClientMetrics metrics;
+
+    private RswsClientBuilder(final URI uri, final Map<String, String> headers) {
         this.uri = uri;
-        this.executorService = executorService;
-        this.eventHandler = eventHandler;
-        this.autoRespondToPing = autoRespondToPing;
-        this.maxFrameSize = maxFrameSize;
-        this.sslSocketFactorySupplier = sslSocketFactorySupplier;
-        this.httpVersion = httpVersion;
         this.headers = headers;
-        this.pingInterval = pingInterval;
+    }
+
+    private RswsClientBuilder copy() {
+        RswsClientBuilder copy = new RswsClientBuilder(uri, headers);
+        copy.executorService = executorService;
+        copy.eventHandler = eventHandler;
+        copy.autoRespondToPing = autoRespondToPing;
+        copy.maxFrameSize = maxFrameSize;
+        copy.sslSocketFactorySupplier = sslSocketFactorySupplier;
+        copy.httpVersion = httpVersion;
+        copy.pingInterval = pingInterval;
+        copy.eventLoopGroup = eventLoopGroup;
+        copy.bufferPool = bufferPool;
+        copy.dispatchMode = dispatchMode;
+        copy.dispatchQueueSize = dispatchQueueSize;
+        copy.maxWriteBatchSize = maxWriteBatchSize;
+        copy.maxWriteBatchLatency = maxWriteBatchLatency;
+        copy.lowWaterMark = lowWaterMark;
+        copy.highWaterMark = highWaterMark;
+        copy.backpressurePolicy = backpressurePolicy;
+        copy.perMessageDeflate = perMessageDeflate;
+        copy.aggregateMessages = aggregateMessages;
+        copy.maxMessageSize = maxMessageSize;
+        copy.decodeText = decodeText;
+        copy.virtualThreads = virtualThreads;
+        copy.metrics = metrics;
+        copy.pongTimeout = pongTimeout;
+        copy.timer = timer;
+        copy.readIdleTimeout = readIdleTimeout;
+        copy.writeIdleTimeout = writeIdleTimeout;
+        copy.closeTimeout = closeTimeout;
+        copy.readGate = readGate;
+        copy.connectTimeout = connectTimeout;
+        copy.connectAttemptDelay = connectAttemptDelay;
+        copy.handshakeTimeout = handshakeTimeout;
+        copy.maskKeyGenerator = maskKeyGenerator;
+        copy.interceptors = interceptors;
+        return copy;
     }
 
     private int getPort() {
@@ -73,57 +162,314 @@ public class RswsClientBuilder {
     }
 
     public static RswsClientBuilder newBuilder(final URI uri) {
-        ThreadFactory defaultThreadFactory = r -> {
-            Thread thread = new Thread(r);
-            thread.setDaemon(true);
-            return thread;
-        };
-
-        RswsClientBuilder builder = new RswsClientBuilder(
-                uri,
-                Executors.newScheduledThreadPool(2, defaultThreadFactory),
-                null,
-                true,
-                DEFAULT_MAX_FRAME_SIZE,
-                DEFAULT_SSL_FACTORY,
-                DEFAULT_HTTP_VERSION,
-                new LinkedHashMap<>(),
-                null
-        );
+        RswsClientBuilder builder = new RswsClientBuilder(uri, new LinkedHashMap<>());
+        builder.autoRespondToPing = true;
+        builder.maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        builder.sslSocketFactorySupplier = DEFAULT_SSL_FACTORY;
+        builder.httpVersion = DEFAULT_HTTP_VERSION;
+        builder.bufferPool = BufferPool.heap();
+        builder.maskKeyGenerator = MaskKeyGenerator.random();
+        builder.interceptors = new FrameInterceptor[0];
+        builder.dispatchMode = DispatchMode.ORDERED;
+        builder.dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+        builder.maxWriteBatchSize = DEFAULT_MAX_WRITE_BATCH_SIZE;
+        builder.maxWriteBatchLatency = Duration.ZERO;
+        builder.lowWaterMark = DEFAULT_LOW_WATER_MARK;
+        builder.highWaterMark = DEFAULT_HIGH_WATER_MARK;
+        builder.backpressurePolicy = BackpressurePolicy.NONE;
+        builder.maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+        builder.metrics = ClientMetrics.NOOP;
+        builder.timer = HashedWheelTimer.shared();
+        builder.closeTimeout = DEFAULT_CLOSE_TIMEOUT;
+        builder.connectAttemptDelay = DEFAULT_CONNECT_ATTEMPT_DELAY;
 
         return builder.withHeader("User-Agent", "rswsc/1.0.0");
     }
 
     public RswsClientBuilder withUri(final URI uri) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.uri = uri;
+        return copy;
     }
 
     public RswsClientBuilder withExecutorService(final ScheduledExecutorService executorService) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.executorService = executorService;
+        return copy;
     }
 
     public RswsClientBuilder withEventHandler(final WebSocketEvent eventHandler) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.eventHandler = eventHandler;
+        return copy;
     }
 
     public RswsClientBuilder withAutoRespondToPing(final boolean autoRespondToPing) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.autoRespondToPing = autoRespondToPing;
+        return copy;
     }
 
     public RswsClientBuilder withMaxFrameSize(final int maxFrameSize) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.maxFrameSize = maxFrameSize;
+        return copy;
     }
 
     public RswsClientBuilder withSslSocketFactorySupplier(final Supplier<SSLSocketFactory> sslSocketFactorySupplier) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.sslSocketFactorySupplier = sslSocketFactorySupplier;
+        return copy;
     }
 
     public RswsClientBuilder withHttpVersion(final String httpVersion) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.httpVersion = httpVersion;
+        return copy;
     }
 
     public RswsClientBuilder withPingInterval(final Duration pingInterval) {
-        return new RswsClientBuilder(uri, executorService, eventHandler, autoRespondToPing, maxFrameSize, sslSocketFactorySupplier, httpVersion, headers, pingInterval);
+        RswsClientBuilder copy = copy();
+        copy.pingInterval = pingInterval;
+        return copy;
+    }
+
+    /**
+     * Treat the connection as dead when an automatic ping is not answered within the timeout, closing it
+     * and failing the future returned by {@link RswsClient#runAsync()}. Only applies with a ping interval.
+     */
+    public RswsClientBuilder withPongTimeout(final Duration pongTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.pongTimeout = pongTimeout;
+        return copy;
+    }
+
+    /**
+     * Timer driving pings, pong and close timeouts and idle detection, {@link HashedWheelTimer#shared()} by
+     * default.
+     */
+    public RswsClientBuilder withTimer(final HashedWheelTimer timer) {
+        RswsClientBuilder copy = copy();
+        copy.timer = timer;
+        return copy;
+    }
+
+    /**
+     * Signal {@link IdleState#READER_IDLE} when nothing has been read for the timeout, not signalled by default.
+     */
+    public RswsClientBuilder withReadIdleTimeout(final Duration readIdleTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.readIdleTimeout = readIdleTimeout;
+        return copy;
+    }
+
+    /**
+     * Signal {@link IdleState#WRITER_IDLE} when nothing has been sent for the timeout, not signalled by default.
+     */
+    public RswsClientBuilder withWriteIdleTimeout(final Duration writeIdleTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.writeIdleTimeout = writeIdleTimeout;
+        return copy;
+    }
+
+    /**
+     * How long {@link RswsClient#disconnect()} waits for the server to close the connection before closing
+     * it from this side, five seconds by default.
+     */
+    public RswsClientBuilder withCloseTimeout(final Duration closeTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.closeTimeout = closeTimeout;
+        return copy;
+    }
+
+    /**
+     * Give up connecting when no address of the host has accepted the connection within the timeout, by
+     * default attempts only end when every address has failed.
+     */
+    public RswsClientBuilder withConnectTimeout(final Duration connectTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.connectTimeout = connectTimeout;
+        return copy;
+    }
+
+    /**
+     * How long a connection attempt to one address of the host runs before the next address is tried as
+     * well, 250 milliseconds by default.
+     */
+    public RswsClientBuilder withConnectAttemptDelay(final Duration connectAttemptDelay) {
+        RswsClientBuilder copy = copy();
+        copy.connectAttemptDelay = connectAttemptDelay;
+        return copy;
+    }
+
+    /**
+     * Give up when the TLS and upgrade handshakes have not completed within the timeout once connected,
+     * no limit by default.
+     */
+    public RswsClientBuilder withHandshakeTimeout(final Duration handshakeTimeout) {
+        RswsClientBuilder copy = copy();
+        copy.handshakeTimeout = handshakeTimeout;
+        return copy;
+    }
+
+    /**
+     * Attach clients to a shared group of non-blocking event loops instead of a blocking read loop each.
+     * Only plain {@code ws} connections can be attached, {@code wss} connections keep the blocking transport.
+     */
+    public RswsClientBuilder withEventLoopGroup(final EventLoopGroup eventLoopGroup) {
+        RswsClientBuilder copy = copy();
+        copy.eventLoopGroup = eventLoopGroup;
+        return copy;
+    }
+
+    /**
+     * Pool the client borrows its read and frame buffers from, the shared heap pool by default.
+     */
+    public RswsClientBuilder withBufferPool(final BufferPool bufferPool) {
+        RswsClientBuilder copy = copy();
+        copy.bufferPool = bufferPool;
+        return copy;
+    }
+
+    /**
+     * Use the shared pool of direct buffers, so reads, writes and encoding never copy through the heap.
+     * Data fragments are then handed to {@link WebSocketEvent#onData(boolean, java.nio.ByteBuffer)} as
+     * read-only views. Same as {@link #withBufferPool(BufferPool)} with {@link BufferPool#direct()}.
+     */
+    public RswsClientBuilder withDirectBuffers(final boolean directBuffers) {
+        return withBufferPool(directBuffers ? BufferPool.direct() : BufferPool.heap());
+    }
+
+    /**
+     * Add an interceptor to the end of the chain every incoming and outgoing frame passes through.
+     */
+    public RswsClientBuilder withFrameInterceptor(final FrameInterceptor interceptor) {
+        RswsClientBuilder copy = copy();
+        copy.interceptors = Arrays.copyOf(interceptors, interceptors.length + 1);
+        copy.interceptors[interceptors.length] = interceptor;
+        return copy;
+    }
+
+    /**
+     * Where the masking keys of outgoing frames come from, {@link MaskKeyGenerator#random()} by default.
+     */
+    public RswsClientBuilder withMaskKeyGenerator(final MaskKeyGenerator maskKeyGenerator) {
+        RswsClientBuilder copy = copy();
+        copy.maskKeyGenerator = maskKeyGenerator;
+        return copy;
+    }
+
+    public RswsClientBuilder withDispatchMode(final DispatchMode dispatchMode) {
+        RswsClientBuilder copy = copy();
+        copy.dispatchMode = dispatchMode;
+        return copy;
+    }
+
+    /**
+     * Number of events a connection can have waiting for the handler in {@link DispatchMode#ORDERED} mode,
+     * rounded up to a power of two.
+     */
+    public RswsClientBuilder withDispatchQueueSize(final int dispatchQueueSize) {
+        RswsClientBuilder copy = copy();
+        copy.dispatchQueueSize = dispatchQueueSize;
+        return copy;
+    }
+
+    /**
+     * Number of bytes of queued frames written together in one gathering write.
+     */
+    public RswsClientBuilder withMaxWriteBatchSize(final int maxWriteBatchSize) {
+        RswsClientBuilder copy = copy();
+        copy.maxWriteBatchSize = maxWriteBatchSize;
+        return copy;
+    }
+
+    /**
+     * How long a frame may wait for more frames to be written together with it, zero (the default) writes
+     * as soon as the writer gets to it.
+     */
+    public RswsClientBuilder withMaxWriteBatchLatency(final Duration maxWriteBatchLatency) {
+        RswsClientBuilder copy = copy();
+        copy.maxWriteBatchLatency = maxWriteBatchLatency;
+        return copy;
+    }
+
+    /**
+     * A client turns unwritable once more than {@code high} bytes are waiting to be written, and writable
+     * again once they drop below {@code low}.
+     */
+    public RswsClientBuilder withWriteBufferWaterMarks(final long low, final long high) {
+        if (low > high) {
+            throw new IllegalArgumentException("Low watermark " + low + " above high watermark " + high);
+        }
+        RswsClientBuilder copy = copy();
+        copy.lowWaterMark = low;
+        copy.highWaterMark = high;
+        return copy;
+    }
+
+    public RswsClientBuilder withBackpressurePolicy(final BackpressurePolicy backpressurePolicy) {
+        RswsClientBuilder copy = copy();
+        copy.backpressurePolicy = backpressurePolicy;
+        return copy;
+    }
+
+    /**
+     * Offer the permessage-deflate extension to the server, not offered by default.
+     */
+    public RswsClientBuilder withPerMessageDeflate(final PerMessageDeflate perMessageDeflate) {
+        RswsClientBuilder copy = copy();
+        copy.perMessageDeflate = perMessageDeflate;
+        return copy;
+    }
+
+    /**
+     * Deliver data as whole messages to {@link WebSocketEvent#onMessage(WebSocketMessage)} instead of
+     * fragments to {@link WebSocketEvent#onData(boolean, byte[])}.
+     */
+    public RswsClientBuilder withMessageAggregation(final boolean aggregateMessages) {
+        RswsClientBuilder copy = copy();
+        copy.aggregateMessages = aggregateMessages;
+        return copy;
+    }
+
+    /**
+     * Largest aggregated message accepted, a larger one closes the connection with status 1009.
+     */
+    public RswsClientBuilder withMaxMessageSize(final long maxMessageSize) {
+        RswsClientBuilder copy = copy();
+        copy.maxMessageSize = maxMessageSize;
+        return copy;
+    }
+
+    /**
+     * Deliver text messages decoded to {@link WebSocketEvent#onText(CharSequence, boolean)} instead of as
+     * bytes to {@link WebSocketEvent#onData(boolean, byte[])} or {@link WebSocketEvent#onMessage(WebSocketMessage)}.
+     */
+    public RswsClientBuilder withTextDecoding(final boolean decodeText) {
+        RswsClientBuilder copy = copy();
+        copy.decodeText = decodeText;
+        return copy;
+    }
+
+    /**
+     * Run the read loop, writer and event dispatch of each client on virtual threads of their own, which
+     * needs Java 21 or later. Blocking connections then scale to far more clients than platform threads.
+     */
+    public RswsClientBuilder withVirtualThreads(final boolean virtualThreads) {
+        RswsClientBuilder copy = copy();
+        copy.virtualThreads = virtualThreads;
+        return copy;
+    }
+
+    /**
+     * Record frame and byte counts, queue depths and latencies, for example with {@link JmxClientMetrics}.
+     * Nothing is recorded by default.
+     */
+    public RswsClientBuilder withMetrics(final ClientMetrics metrics) {
+        RswsClientBuilder copy = copy();
+        copy.metrics = metrics == null ? ClientMetrics.NOOP : metrics;
+        return copy;
     }
 
     public RswsClientBuilder withHeader(final String key, final String value) {
@@ -131,26 +477,55 @@ public class RswsClientBuilder {
         return this;
     }
 
+    RswsClientBuilder withReadGate(final ReadGate readGate) {
+        RswsClientBuilder copy = copy();
+        copy.readGate = readGate;
+        return copy;
+    }
+
     public RswsClient build() {
 
-        // Force these headers
-        withHeader("Connection", "Upgrade");
-        withHeader("Upgrade", "websocket");
-        withHeader("Sec-WebSocket-Version", "13");
-        withHeader("Host", uri.getHost() + ":" + getPort());
-        withHeader(SEC_WEBSOCKET_KEY_HEADER, WebSocketUtils.generateWebSocketKey());
-
-        return new RswsClient(
-                uri,
-                executorService,
-                eventHandler,
-                autoRespondToPing,
-                maxFrameSize,
-                sslSocketFactorySupplier,
-                httpVersion,
-                headers,
-                getPort(),
-                pingInterval
-        );
+        // Force these headers, on a copy of its own, as builder copies share their headers
+        Map<String, String> handshakeHeaders = new LinkedHashMap<>(headers);
+        handshakeHeaders.put("Connection", "Upgrade");
+        handshakeHeaders.put("Upgrade", "websocket");
+        handshakeHeaders.put("Sec-WebSocket-Version", "13");
+        handshakeHeaders.put("Host", uri.getHost() + ":" + getPort());
+        handshakeHeaders.put(SEC_WEBSOCKET_KEY_HEADER, WebSocketUtils.generateWebSocketKey());
+        if (perMessageDeflate != null) {
+            handshakeHeaders.put(SEC_WEBSOCKET_EXTENSIONS_HEADER, perMessageDeflate.offer());
+        } else {
+            handshakeHeaders.remove(SEC_WEBSOCKET_EXTENSIONS_HEADER);
+        }
+
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        // Only ws connections are attached to the group, a wss read loop would take over one of its threads
+        boolean attached = eventLoopGroup != null && uri.getScheme().equalsIgnoreCase("ws");
+        ScheduledExecutorService scheduler = resolveExecutorService(attached);
+        ExecutorService taskExecutor = virtualThreads
+                ? VirtualThreads.newExecutor()
+                : attached && executorService == null ? eventLoopGroup.dispatcher() : scheduler;
+        return new RswsClient(this, handshakeHeaders, scheduler, taskExecutor, getPort());
+    }
+
+    private ScheduledExecutorService resolveExecutorService(final boolean attached) {
+        if (executorService != null) {
+            return executorService;
+        }
+        if (attached) {
+            return eventLoopGroup.scheduler();
+        }
+        if (virtualThreads) {
+            return VirtualThreads.newScheduler();
+        }
+        ThreadFactory defaultThreadFactory = r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        };
+        // The read loop, the writer and event dispatch each get a thread, so a handler waiting on a send never starves the writer
+        return Executors.newScheduledThreadPool(3, defaultThreadFactory);
     }
 }
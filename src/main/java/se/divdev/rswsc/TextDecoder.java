@@ -0,0 +1,93 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Strict, incremental UTF-8 decoding of text messages into a reusable character buffer.
+ * <p>
+ * A sequence split across fragments is carried over to the next one, so a message can be decoded as its
+ * fragments arrive. The buffer grows to the largest text decoded at once and is then kept.
+ */
+final class TextDecoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    // Start of a sequence the previous fragment ended in
+    private final ByteBuffer carry = ByteBuffer.allocate(4);
+
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Decode the content, consuming it, and append the characters to the buffer
+     *
+     * @param last true if this is the end of the message
+     */
+    void decode(final ByteBuffer bytes, final boolean last) throws CharacterCodingException {
+        // UTF-8 never decodes to more characters than bytes
+        ensureCapacity(bytes.remaining() + carry.position());
+        try {
+            while (carry.position() > 0 && bytes.hasRemaining()) {
+                carry.put(bytes.get()).flip();
+                check(decoder.decode(carry, chars, false));
+                if (carry.hasRemaining()) {
+                    carry.compact();
+                } else {
+                    carry.clear();
+                }
+            }
+            check(decoder.decode(bytes, chars, last && carry.position() == 0));
+            if (bytes.hasRemaining()) {
+                carry.put(bytes);
+            }
+            if (last) {
+                if (carry.position() > 0) {
+                    throw new MalformedInputException(carry.position());
+                }
+                check(decoder.flush(chars));
+                decoder.reset();
+            }
+        } catch (CharacterCodingException e) {
+            decoder.reset();
+            carry.clear();
+            chars.clear();
+            throw e;
+        }
+    }
+
+    private static void check(final CoderResult result) throws CharacterCodingException {
+        if (result.isError() || result.isOverflow()) {
+            result.throwException();
+        }
+    }
+
+    private void ensureCapacity(final int needed) {
+        if (chars.remaining() < needed) {
+            CharBuffer larger = CharBuffer.allocate(Math.max(chars.capacity() * 2, chars.position() + needed));
+            chars.flip();
+            larger.put(chars);
+            chars = larger;
+        }
+    }
+
+    /**
+     * Characters decoded since the last {@link #clear()}, valid until the next call to the decoder
+     */
+    CharBuffer chars() {
+        return (CharBuffer) chars.duplicate().flip();
+    }
+
+    void clear() {
+        chars.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package se.divdev.rswsc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Logs a one line summary of each frame at trace level, see {@link FrameInterceptor#tracing()}.
+ */
+final class TracingInterceptor implements FrameInterceptor {
+
+    static final TracingInterceptor INSTANCE = new TracingInterceptor();
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrameInterceptor.class);
+
+    private TracingInterceptor() {
+    }
+
+    @Override
+    public boolean onInbound(final FrameHeader header, final ByteBuffer payload, final boolean endOfFrame) {
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("<< {} final={} compressed={} length={} part={}+{}{}", header.getOpCode(), header.isFinalFrame(),
+                    header.isCompressed(), header.payloadSize(), header.payloadOffset(), payload.remaining(), endOfFrame ? "" : " ...");
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onOutbound(final FrameHeader header, final ByteBuffer frame) {
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(">> {} final={} compressed={} length={}", header.getOpCode(), header.isFinalFrame(),
+                    header.isCompressed(), header.payloadSize());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+package se.divdev.rswsc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental UTF-8 validation of a text message, as RFC 6455 requires.
+ * <p>
+ * Content is checked fragment by fragment, with a sequence split across fragments carried over as state.
+ * Overlong encodings, surrogates and code points above U+10FFFF are rejected, like the strict decoder.
+ */
+final class Utf8Validator {
+
+    private static final long NON_ASCII = 0x8080808080808080L;
+
+    // Continuation bytes still expected in the current sequence
+    private int needed;
+
+    // Allowed range of the next continuation byte
+    private int lower = 0x80;
+
+    private int upper = 0xBF;
+
+    /**
+     * Check the content between position and limit, which are left untouched
+     *
+     * @return false if the content cannot be part of valid UTF-8
+     */
+    boolean validate(final ByteBuffer content) {
+        int index = content.position();
+        int limit = content.limit();
+        while (index < limit) {
+            if (needed == 0) {
+                // Skip runs of ASCII eight bytes at a time
+                while (index + 8 <= limit && (content.getLong(index) & NON_ASCII) == 0) {
+                    index += 8;
+                }
+                if (index == limit) {
+                    break;
+                }
+            }
+            if (!next(content.get(index++) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean next(final int b) {
+        if (needed > 0) {
+            if (b < lower || b > upper) {
+                return false;
+            }
+            lower = 0x80;
+            upper = 0xBF;
+            needed--;
+            return true;
+        }
+        if (b < 0x80) {
+            return true;
+        }
+        if (b >= 0xC2 && b <= 0xDF) {
+            needed = 1;
+        } else if (b == 0xE0) {
+            needed = 2;
+            lower = 0xA0;
+        } else if (b == 0xED) {
+            needed = 2;
+            upper = 0x9F;
+        } else if (b >= 0xE1 && b <= 0xEF) {
+            needed = 2;
+        } else if (b == 0xF0) {
+            needed = 3;
+            lower = 0x90;
+        } else if (b >= 0xF1 && b <= 0xF3) {
+            needed = 3;
+        } else if (b == 0xF4) {
+            needed = 3;
+            upper = 0x8F;
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * True if the content so far does not end inside a sequence
+     */
+    boolean isComplete() {
+        return needed == 0;
+    }
+
+    void reset() {
+        needed = 0;
+        lower = 0x80;
+        upper = 0xBF;
+    }
+}
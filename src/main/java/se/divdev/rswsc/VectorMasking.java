@@ -0,0 +1,27 @@
+package se.divdev.rswsc;
+
+/**
+ * Vector API masking of heap arrays.
+ * <p>
+ * This is the fallback for runtimes without the Vector API, the multi-release jar replaces it on Java 17+
+ * where it is used if the {@code jdk.incubator.vector} module has been added.
+ */
+final class VectorMasking {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private VectorMasking() {
+    }
+
+    // Not a compile time constant, so callers do not inline it past the multi-release override
+    private static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * @return number of leading bytes masked
+     */
+    static int mask(final byte[] data, final int offset, final int length, final int mask) {
+        return 0;
+    }
+}
@@ -0,0 +1,32 @@
+package se.divdev.rswsc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Virtual thread support, replaced by a versioned class in the multi-release jar when running on Java 21
+ * or later. On older versions virtual threads are not available.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Executor starting a new virtual thread per task
+     */
+    static ExecutorService newExecutor() {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+
+    /**
+     * Single threaded scheduler running on a virtual thread
+     */
+    static ScheduledExecutorService newScheduler() {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+}
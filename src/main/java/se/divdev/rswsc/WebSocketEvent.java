@@ -3,6 +3,9 @@ package se.divdev.rswsc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 public interface WebSocketEvent {
 
     Logger LOGGER = LoggerFactory.getLogger(WebSocketEvent.class);
@@ -11,6 +14,43 @@ public interface WebSocketEvent {
         LOGGER.info("onData method not implemented. Got {} bytes, Final frame: {}", payload.length, finalFragment);
     }
 
+    /**
+     * Called instead of {@link #onData(boolean, byte[])} when the client's buffer pool is direct, with a
+     * read-only view of the payload that is only valid during the call. By default the payload is copied
+     * and passed on to {@link #onData(boolean, byte[])}.
+     */
+    default void onData(boolean finalFragment, ByteBuffer payload) {
+        byte[] copy = new byte[payload.remaining()];
+        payload.get(copy);
+        onData(finalFragment, copy);
+    }
+
+    /**
+     * Called with every complete data message instead of {@link #onData(boolean, byte[])}, when message
+     * aggregation is enabled on the builder. The message is only valid during the call.
+     */
+    default void onMessage(WebSocketMessage message) {
+        LOGGER.info("onMessage method not implemented. Got {} bytes", message.size());
+    }
+
+    /**
+     * Called on the thread reading the connection as a data message starts. Returning a channel streams the
+     * payload into it as it is read, straight from the read buffer, and closes the channel once the message
+     * is complete or the connection is lost. The message then bypasses every other callback and the max
+     * message size. Returning null, the default, delivers the message as usual.
+     */
+    default WritableByteChannel onMessageStart(OpCode opCode) {
+        return null;
+    }
+
+    /**
+     * Called with decoded text when text decoding is enabled on the builder, once per fragment, or once per
+     * message with message aggregation. The characters are only valid during the call.
+     */
+    default void onText(CharSequence text, boolean last) {
+        LOGGER.info("onText method not implemented. Got {} characters, Last: {}", text.length(), last);
+    }
+
     default void onPing(boolean finalFragment, byte[] payload) {
         LOGGER.info("onPing method not implemented. Got {} bytes, Final frame: {}", payload.length, finalFragment);
     }
@@ -18,4 +58,20 @@ public interface WebSocketEvent {
     default void onPong(boolean finalFragment, byte[] payload) {
         LOGGER.info("onPong method not implemented. Got {} bytes, Final frame: {}", payload.length, finalFragment);
     }
+
+    /**
+     * Called on the client's executor whenever a side of the connection has been idle for its configured
+     * timeout, again after every further timeout of idleness.
+     */
+    default void onIdle(IdleState state) {
+        LOGGER.debug("Connection idle: {}", state);
+    }
+
+    /**
+     * Called when the bytes waiting to be written cross the high (false) or low (true) watermark, on the
+     * thread that caused the change.
+     */
+    default void onWritabilityChanged(boolean writable) {
+        LOGGER.debug("Writability changed: {}", writable);
+    }
 }
@@ -1,15 +1,13 @@
 package se.divdev.rswsc;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class WebSocketFrame {
 
-    private static final Random RANDOM = new Random();
-
     private final byte[] headerBytes = new byte[2];
     private final byte[] lengthBytes;
     private final byte[] mask;
@@ -101,9 +99,7 @@ public class WebSocketFrame {
         if (masked) {
             // Enable masking
             initial[1] = BitUtils.enableBit(initial[1], 7);
-            byte[] mask = new byte[4];
-            RANDOM.nextBytes(mask);
-            System.arraycopy(mask, 0, initial, 2, mask.length);
+            ByteBuffer.wrap(initial, 2, 4).putInt(ThreadLocalRandom.current().nextInt());
         }
 
         boolean[] opCodeBytes = BitUtils.decode(opCode.value);
@@ -155,17 +151,6 @@ public class WebSocketFrame {
         return length;
     }
 
-    private byte[] lengthInBytes(final long length, final int numberOfBytes) {
-        if (numberOfBytes == 0) {
-            return new byte[0];
-        }
-        byte[] result = new byte[numberOfBytes];
-        for (int i = 0; i < numberOfBytes; i++) {
-            result[i] = (byte) (length >> ((numberOfBytes - i - 1) * 8));
-        }
-        return result;
-    }
-
     boolean isMasked() {
         return BitUtils.getBit(headerBytes[1], 7);
     }
@@ -191,31 +176,12 @@ public class WebSocketFrame {
     }
 
     public byte[] build(final boolean finalFrame, final byte... payload) throws IOException {
-
-        byte[] headerBytes = Arrays.copyOf(this.headerBytes, this.headerBytes.length);
-
-        headerBytes[0] = BitUtils.setBit(headerBytes[0], 7, finalFrame);
-
-        int length = payload.length;
-        int numberOfLengthBytes = length < 126 ? 0 : length > 0xFFFF ? 8 : 2;
-        byte[] lengthBytes = lengthInBytes(length, numberOfLengthBytes);
-
-        // If length is > 2^16 then set to 127, > 125 then set it to 126, otherwise length
-        int singleLengthByte = lengthBytes.length == 2 ? 126 : lengthBytes.length == 8 ? 127 : length;
-        boolean[] bits = BitUtils.decode((byte) singleLengthByte);
-        for (int i = 0; i < bits.length - 1; i++) {
-            headerBytes[1] = BitUtils.setBit(headerBytes[1], i, bits[i]);
-        }
-
-        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-            output.write(headerBytes);
-            output.write(lengthBytes);
-            output.write(this.mask);
-            if (payload != null && payload.length > 0) {
-                output.write(process(payload, 0));
-            }
-            return output.toByteArray();
-        }
+        int length = payload == null ? 0 : payload.length;
+        byte[] result = new byte[FrameEncoder.headerSize(length, isMasked()) + length];
+        int mask = isMasked() ? ByteBuffer.wrap(this.mask).getInt() : 0;
+        FrameEncoder.encode(ByteBuffer.wrap(result), finalFrame, getOpCode(), isMasked(), mask,
+                length > 0 ? payload : result, 0, length);
+        return result;
     }
 
     public byte[] getPayload() {
@@ -226,10 +192,8 @@ public class WebSocketFrame {
         if (!isMasked()) {
             return data;
         }
-        byte[] result = new byte[data.length];
-        for (int i = 0; i < data.length; i++) {
-            result[i] = (byte) (data[i] ^ mask[(maskIndex + i) % 4]);
-        }
+        byte[] result = Arrays.copyOf(data, data.length);
+        Masking.mask(result, 0, result.length, ByteBuffer.wrap(mask).getInt(), maskIndex);
         return result;
     }
 
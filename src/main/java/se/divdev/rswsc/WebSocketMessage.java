@@ -0,0 +1,140 @@
+package se.divdev.rswsc;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A complete incoming data message, handed to {@link WebSocketEvent#onMessage(WebSocketMessage)}.
+ * <p>
+ * The content is kept in one or more pooled buffers rather than one contiguous array, so reassembling a
+ * fragmented message never grows and copies a buffer. The message, and every view of it, is only valid
+ * during the callback. Use {@link #toByteArray()} to keep the content beyond that.
+ */
+public final class WebSocketMessage {
+
+    private static final PooledBuffer[] NO_CHUNKS = new PooledBuffer[0];
+
+    private final OpCode opCode;
+
+    private final ByteBuffer[] buffers;
+
+    private final PooledBuffer[] chunks;
+
+    private final long size;
+
+    WebSocketMessage(final OpCode opCode, final ByteBuffer[] buffers, final PooledBuffer[] chunks, final long size) {
+        this.opCode = opCode;
+        this.buffers = buffers;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * A message whose content is borrowed from the caller, nothing to release
+     */
+    static WebSocketMessage borrowed(final OpCode opCode, final ByteBuffer content) {
+        return new WebSocketMessage(opCode, new ByteBuffer[]{content}, NO_CHUNKS, content.remaining());
+    }
+
+    /**
+     * {@link OpCode#TEXT} or {@link OpCode#BINARY}
+     */
+    public OpCode opCode() {
+        return opCode;
+    }
+
+    public boolean isText() {
+        return opCode == OpCode.TEXT;
+    }
+
+    /**
+     * Number of payload bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Read-only views of the content, in order
+     */
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] views = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            views[i] = buffers[i].asReadOnlyBuffer();
+        }
+        return views;
+    }
+
+    /**
+     * Copy of the content in a single array
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Message too large for an array: " + size);
+        }
+        byte[] content = new byte[(int) size];
+        int offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            int length = buffer.remaining();
+            buffer.duplicate().get(content, offset, length);
+            offset += length;
+        }
+        return content;
+    }
+
+    /**
+     * Stream over the content, reading across buffers without copying them together
+     */
+    public InputStream inputStream() {
+        ByteBuffer[] views = buffers();
+        return new InputStream() {
+            private int index;
+
+            private ByteBuffer current() {
+                while (index < views.length && !views[index].hasRemaining()) {
+                    index++;
+                }
+                return index < views.length ? views[index] : null;
+            }
+
+            @Override
+            public int read() {
+                ByteBuffer current = current();
+                return current == null ? -1 : current.get() & 0xFF;
+            }
+
+            @Override
+            public int read(final byte[] bytes, final int offset, final int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                ByteBuffer current = current();
+                if (current == null) {
+                    return -1;
+                }
+                int read = Math.min(length, current.remaining());
+                current.get(bytes, offset, read);
+                return read;
+            }
+
+            @Override
+            public int available() {
+                ByteBuffer current = current();
+                return current == null ? 0 : current.remaining();
+            }
+        };
+    }
+
+    /**
+     * Copy whose content stays valid after the callback
+     */
+    WebSocketMessage detached() {
+        return new WebSocketMessage(opCode, new ByteBuffer[]{ByteBuffer.wrap(toByteArray())}, NO_CHUNKS, size);
+    }
+
+    void release() {
+        for (PooledBuffer chunk : chunks) {
+            chunk.release();
+        }
+    }
+}
@@ -1,29 +1,31 @@
 package se.divdev.rswsc;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class WebSocketUtils {
 
     static final String SEC_WEBSOCKET_KEY_HEADER = "Sec-WebSocket-Key";
     static final String SEC_WEBSOCKET_ACCEPT_HEADER = "Sec-WebSocket-Accept";
-
-    private static final MessageDigest MD;
+    static final String SEC_WEBSOCKET_EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
 
     private static final String CONCAT = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 
-    static {
+    // A digest per thread, since a MessageDigest must not be used by two threads at once
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
         try {
-            MD = MessageDigest.getInstance("SHA-1");
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            throw new IllegalStateException(e);
         }
-    }
+    });
 
     public static final String generateSecWebSocketAccept(final String key) {
         String accept = key.concat(CONCAT);
-        byte[] sha1 = MD.digest(accept.getBytes());
+        byte[] sha1 = SHA1.get().digest(accept.getBytes(StandardCharsets.US_ASCII));
         return Base64.getEncoder().encodeToString(sha1);
     }
 
@@ -33,8 +35,9 @@ public class WebSocketUtils {
 
     public static final String generateWebSocketKey(final int len) {
         byte[] data = new byte[len];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         for (int i = 0; i < len; i++) {
-            data[i] = (byte) (Math.random() * (127 - 32) + 32);
+            data[i] = (byte) random.nextInt(32, 127);
         }
         return Base64.getEncoder().encodeToString(data);
     }
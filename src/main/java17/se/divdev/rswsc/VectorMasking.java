@@ -0,0 +1,54 @@
+package se.divdev.rswsc;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API masking of heap arrays.
+ * <p>
+ * Only used when the application runs with {@code --add-modules jdk.incubator.vector}, otherwise
+ * {@link #AVAILABLE} is false and {@link Masking} keeps to its word at a time loop.
+ */
+final class VectorMasking {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private VectorMasking() {
+    }
+
+    private static boolean isAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+                && !Boolean.getBoolean("rswsc.masking.disableVector");
+    }
+
+    /**
+     * @return number of leading bytes masked
+     */
+    static int mask(final byte[] data, final int offset, final int length, final int mask) {
+        return Kernel.mask(data, offset, length, mask);
+    }
+
+    // Kept apart so the incubator classes are only loaded once the module is known to be present
+    private static final class Kernel {
+
+        private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+        private static int mask(final byte[] data, final int offset, final int length, final int mask) {
+            int bound = SPECIES.loopBound(length);
+            if (bound == 0) {
+                return 0;
+            }
+            // Broadcast the key in network order over a whole vector, lanes are a multiple of four bytes
+            ByteVector key = IntVector.broadcast(IntVector.SPECIES_PREFERRED, Integer.reverseBytes(mask))
+                    .reinterpretAsBytes();
+            for (int i = 0; i < bound; i += SPECIES.length()) {
+                ByteVector.fromArray(SPECIES, data, offset + i)
+                        .lanewise(VectorOperators.XOR, key)
+                        .intoArray(data, offset + i);
+            }
+            return bound;
+        }
+    }
+}
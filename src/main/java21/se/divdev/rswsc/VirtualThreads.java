@@ -0,0 +1,35 @@
+package se.divdev.rswsc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual thread support on Java 21 or later.
+ */
+final class VirtualThreads {
+
+    private static final ThreadFactory THREAD_FACTORY = Thread.ofVirtual().name("rswsc-virtual-", 0).factory();
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Executor starting a new virtual thread per task
+     */
+    static ExecutorService newExecutor() {
+        return Executors.newThreadPerTaskExecutor(THREAD_FACTORY);
+    }
+
+    /**
+     * Single threaded scheduler running on a virtual thread
+     */
+    static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+    }
+}
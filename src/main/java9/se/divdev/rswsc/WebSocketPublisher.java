@@ -0,0 +1,218 @@
+package se.divdev.rswsc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Incoming messages of a client as a {@link Flow.Publisher}, for a single subscriber.
+ * <p>
+ * The client only reads from the socket while the subscriber has requested more messages than are waiting
+ * for it, so a slow subscriber holds back the server through TCP flow control. Messages are handed over as
+ * copies that stay valid after {@code onNext}. The subscriber is completed once the connection is closed,
+ * or failed with the reason it was lost.
+ * <p>
+ * Cancelling stops delivery and lets the client read freely again, dropping what arrives. The connection
+ * itself is left open.
+ *
+ * <pre>
+ * WebSocketPublisher publisher = new WebSocketPublisher(RswsClientBuilder.newBuilder(uri));
+ * publisher.subscribe(subscriber);
+ * publisher.client().connect().runAsync();
+ * </pre>
+ */
+public final class WebSocketPublisher implements Flow.Publisher<WebSocketMessage> {
+
+    private final RswsClient client;
+
+    private final WebSocketEvent delegate;
+
+    private final Queue<WebSocketMessage> buffered = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong bufferedCount = new AtomicLong();
+
+    private final AtomicLong requested = new AtomicLong();
+
+    // Serializes signals to the subscriber, whoever increments it from zero drains
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicReference<Flow.Subscriber<? super WebSocketMessage>> subscriber = new AtomicReference<>();
+
+    // Set once onSubscribe has returned, nothing else is signalled before
+    private volatile Flow.Subscriber<? super WebSocketMessage> active;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean done;
+
+    private volatile Throwable error;
+
+    private boolean terminated;
+
+    private final ReadGate readGate = new ReadGate(false) {
+        @Override
+        void onClosed(final Throwable cause) {
+            error = cause;
+            done = true;
+            drain();
+        }
+    };
+
+    /**
+     * Build the client from the builder, with message aggregation enabled and text decoding disabled. Its
+     * event handler, if any, still gets every callback other than the messages.
+     */
+    public WebSocketPublisher(final RswsClientBuilder builder) {
+        this.delegate = builder.eventHandler == null ? new WebSocketEvent() {
+        } : builder.eventHandler;
+        this.client = builder
+                .withMessageAggregation(true)
+                .withTextDecoding(false)
+                .withEventHandler(new Handler())
+                .withReadGate(readGate)
+                .build();
+    }
+
+    public RswsClient client() {
+        return client;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super WebSocketMessage> subscriber) {
+        if (!this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Already subscribed"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription());
+        active = subscriber;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super WebSocketMessage> subscriber = active;
+            if (cancelled) {
+                clear();
+            } else if (subscriber != null && !terminated) {
+                emit(subscriber);
+            }
+            updateReadGate();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(final Flow.Subscriber<? super WebSocketMessage> subscriber) {
+        long demand = requested.get();
+        long emitted = 0;
+        while (emitted != demand && !cancelled) {
+            WebSocketMessage message = buffered.poll();
+            if (message == null) {
+                break;
+            }
+            bufferedCount.decrementAndGet();
+            try {
+                subscriber.onNext(message);
+            } catch (RuntimeException e) {
+                // A subscriber throwing from onNext is treated as having cancelled
+                cancelled = true;
+            }
+            emitted++;
+        }
+        if (emitted > 0 && demand != Long.MAX_VALUE) {
+            requested.addAndGet(-emitted);
+        }
+        if (cancelled) {
+            clear();
+        } else if (done && buffered.isEmpty()) {
+            terminated = true;
+            if (error == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(error);
+            }
+        }
+    }
+
+    private void updateReadGate() {
+        if (cancelled || done || requested.get() > bufferedCount.get()) {
+            readGate.open();
+        } else {
+            readGate.shut();
+        }
+    }
+
+    private void clear() {
+        buffered.clear();
+        bufferedCount.set(0);
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " messages, must be positive");
+                done = true;
+                clear();
+            } else {
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+    }
+
+    private final class Handler implements WebSocketEvent {
+
+        @Override
+        public void onMessage(final WebSocketMessage message) {
+            if (cancelled || done) {
+                return;
+            }
+            buffered.offer(message.detached());
+            bufferedCount.incrementAndGet();
+            drain();
+        }
+
+        @Override
+        public void onPing(final boolean finalFragment, final byte[] payload) {
+            delegate.onPing(finalFragment, payload);
+        }
+
+        @Override
+        public void onPong(final boolean finalFragment, final byte[] payload) {
+            delegate.onPong(finalFragment, payload);
+        }
+
+        @Override
+        public void onIdle(final IdleState state) {
+            delegate.onIdle(state);
+        }
+
+        @Override
+        public void onWritabilityChanged(final boolean writable) {
+            delegate.onWritabilityChanged(writable);
+        }
+    }
+}
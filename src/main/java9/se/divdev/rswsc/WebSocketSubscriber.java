@@ -0,0 +1,115 @@
+package se.divdev.rswsc;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Flow.Subscriber} sending every item as a message of a client. More items are only requested as
+ * earlier messages have been written to the socket, so no more than the window of messages is ever queued.
+ * <p>
+ * A failed send cancels the subscription. The connection is left open when the upstream completes.
+ */
+public final class WebSocketSubscriber<T> implements Flow.Subscriber<T> {
+
+    private interface Sender<T> {
+        CompletableFuture<Void> send(RswsClient client, T item) throws IOException;
+    }
+
+    private final RswsClient client;
+
+    private final Sender<T> sender;
+
+    private final int window;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    // Messages sent but not yet written, plus one until the upstream completes
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+
+    private volatile Flow.Subscription subscription;
+
+    private WebSocketSubscriber(final RswsClient client, final Sender<T> sender, final int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        this.client = client;
+        this.sender = sender;
+        this.window = window;
+    }
+
+    /**
+     * Send every item as a binary message, with at most the window of messages waiting to be written
+     */
+    public static WebSocketSubscriber<byte[]> binary(final RswsClient client, final int window) {
+        return new WebSocketSubscriber<>(client, RswsClient::sendBinary, window);
+    }
+
+    /**
+     * Send every item as a text message, with at most the window of messages waiting to be written
+     */
+    public static WebSocketSubscriber<CharSequence> text(final RswsClient client, final int window) {
+        return new WebSocketSubscriber<>(client, RswsClient::sendText, window);
+    }
+
+    /**
+     * Completed once the upstream has completed and every message has been written, or failed with the
+     * first error of either
+     */
+    public CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(final T item) {
+        if (completion.isDone()) {
+            return;
+        }
+        outstanding.incrementAndGet();
+        CompletableFuture<Void> written;
+        try {
+            written = sender.send(client, item);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+            return;
+        }
+        written.whenComplete((ignored, error) -> {
+            if (error != null) {
+                fail(error);
+            } else if (outstanding.decrementAndGet() == 0) {
+                completion.complete(null);
+            } else {
+                subscription.request(1);
+            }
+        });
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (outstanding.decrementAndGet() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    private void fail(final Throwable error) {
+        if (completion.completeExceptionally(error)) {
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BackpressureTest {
+
+    @Test
+    public void testHandlerSendingUnderBlockDoesNotDeadlock() throws Exception {
+        int messages = 64;
+        int messageSize = 64 * 1024;
+        CompletableFuture<Void> handled = new CompletableFuture<>();
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient[] client = new RswsClient[1];
+            client[0] = RswsClientBuilder.newBuilder(server.uri())
+                    .withBackpressurePolicy(BackpressurePolicy.BLOCK)
+                    .withWriteBufferWaterMarks(16 * 1024, 64 * 1024)
+                    .withEventHandler(new WebSocketEvent() {
+                        @Override
+                        public void onData(final boolean finalFragment, final byte[] payload) {
+                            // Well past the high watermark, then waiting for the last one to be written
+                            try {
+                                CompletableFuture<Void> last = null;
+                                for (int i = 0; i < messages; i++) {
+                                    last = client[0].sendBinary(new byte[messageSize]);
+                                }
+                                last.get(10, TimeUnit.SECONDS);
+                                handled.complete(null);
+                            } catch (Exception e) {
+                                handled.completeExceptionally(e);
+                            }
+                        }
+                    })
+                    .build()
+                    .connect();
+            try {
+                client[0].runAsync();
+                server.discardInput();
+                server.write(LoopbackServer.frame(0x82, "go".getBytes()));
+
+                handled.get(20, TimeUnit.SECONDS);
+            } finally {
+                client[0].close();
+            }
+        }
+    }
+}
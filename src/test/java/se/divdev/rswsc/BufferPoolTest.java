@@ -0,0 +1,41 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBuffersAreReused() {
+        BufferPool pool = new BufferPool(false);
+        PooledBuffer first = pool.acquire(1000);
+        Assertions.assertEquals(1024, first.buffer().capacity());
+        Assertions.assertEquals(1000, first.buffer().limit());
+        Assertions.assertTrue(first.release());
+
+        PooledBuffer second = pool.acquire(600);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(600, second.buffer().limit());
+        second.release();
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        PooledBuffer buffer = new BufferPool(true).acquire(10);
+        Assertions.assertTrue(buffer.buffer().isDirect());
+        buffer.retain();
+        Assertions.assertFalse(buffer.release());
+        Assertions.assertTrue(buffer.release());
+        Assertions.assertThrows(IllegalStateException.class, buffer::release);
+        Assertions.assertThrows(IllegalStateException.class, buffer::retain);
+    }
+
+    @Test
+    public void testLargeBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(false);
+        PooledBuffer buffer = pool.acquire(BufferPool.MAX_POOLED_SIZE + 1);
+        Assertions.assertEquals(BufferPool.MAX_POOLED_SIZE + 1, buffer.buffer().capacity());
+        buffer.release();
+        Assertions.assertNotSame(buffer, pool.acquire(BufferPool.MAX_POOLED_SIZE + 1));
+    }
+}
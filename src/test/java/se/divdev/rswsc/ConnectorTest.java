@@ -0,0 +1,72 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectorTest {
+
+    @Test
+    public void testAddressFamiliesAreInterleaved() throws Exception {
+        InetAddress v6a = InetAddress.getByName("::1");
+        InetAddress v6b = InetAddress.getByName("::2");
+        InetAddress v4a = InetAddress.getByName("127.0.0.1");
+        InetAddress v4b = InetAddress.getByName("127.0.0.2");
+        InetAddress v4c = InetAddress.getByName("127.0.0.3");
+
+        List<InetAddress> interleaved = Connector.interleave(new InetAddress[]{v4a, v4b, v4c, v6a, v6b});
+        Assertions.assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c), interleaved);
+
+        interleaved = Connector.interleave(new InetAddress[]{v6a, v4a, v4b});
+        Assertions.assertEquals(Arrays.asList(v6a, v4a, v4b), interleaved);
+
+        interleaved = Connector.interleave(new InetAddress[]{v4a, v4b});
+        Assertions.assertEquals(Arrays.asList(v4a, v4b), interleaved);
+    }
+
+    @Test
+    public void testConnectsInBlockingMode() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            long timeout = TimeUnit.SECONDS.toNanos(5);
+            try (SocketChannel channel = Connector.connect("localhost", server.getLocalPort(), TimeUnit.MILLISECONDS.toNanos(250), timeout)) {
+                Assertions.assertTrue(channel.isConnected());
+                Assertions.assertTrue(channel.isBlocking());
+                Assertions.assertEquals(server.getLocalPort(), ((InetSocketAddress) channel.getRemoteAddress()).getPort());
+            }
+        }
+    }
+
+    @Test
+    public void testRefusedAddressMovesOnWithoutWaitingForTheDelay() throws Exception {
+        InetAddress listening = InetAddress.getByName("127.0.0.1");
+        InetAddress refusing = InetAddress.getByName("127.0.0.2");
+        long attemptDelay = TimeUnit.SECONDS.toNanos(2);
+        try (ServerSocket server = new ServerSocket(0, 1, listening)) {
+            long started = System.nanoTime();
+            try (SocketChannel channel = Connector.connect(new InetAddress[]{refusing, listening}, server.getLocalPort(),
+                    attemptDelay, TimeUnit.SECONDS.toNanos(5))) {
+                Assertions.assertTrue(System.nanoTime() - started < attemptDelay);
+                Assertions.assertEquals(listening, ((InetSocketAddress) channel.getRemoteAddress()).getAddress());
+            }
+        }
+    }
+
+    @Test
+    public void testFailureCarriesEveryAttempt() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+        ConnectException failure = Assertions.assertThrows(ConnectException.class,
+                () -> Connector.connect("127.0.0.1", port, TimeUnit.MILLISECONDS.toNanos(250), 0));
+        Assertions.assertEquals(1, failure.getSuppressed().length);
+    }
+}
@@ -0,0 +1,75 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DeflateCodecTest {
+
+    private static byte[] json(final int entries) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"entry\"},");
+        }
+        return json.append("]").toString().getBytes();
+    }
+
+    @Test
+    public void testRoundTripAcrossFramesAndMessages() throws Exception {
+        DeflateCodec sender = DeflateCodec.negotiate(PerMessageDeflate.newConfig(), "permessage-deflate", 64);
+        DeflateCodec receiver = DeflateCodec.negotiate(PerMessageDeflate.newConfig(), "permessage-deflate", 64);
+
+        for (int message = 0; message < 3; message++) {
+            byte[] payload = json(1000);
+            List<byte[]> frames = new ArrayList<>();
+            List<Boolean> firsts = new ArrayList<>();
+            sender.deflate(payload, 0, payload.length, (compressed, length, first, last) -> {
+                Assertions.assertTrue(length <= 64);
+                frames.add(Arrays.copyOf(compressed, length));
+                firsts.add(first);
+            });
+            Assertions.assertTrue(frames.size() > 1);
+            Assertions.assertTrue(firsts.get(0));
+
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            List<Boolean> lasts = new ArrayList<>();
+            for (int i = 0; i < frames.size(); i++) {
+                ByteBuffer frame = ByteBuffer.allocateDirect(frames.get(i).length);
+                frame.put(frames.get(i)).flip();
+                receiver.inflate(frame, i == frames.size() - 1, (data, last) -> {
+                    inflated.write(data, 0, data.length);
+                    lasts.add(last);
+                });
+            }
+            Assertions.assertArrayEquals(payload, inflated.toByteArray());
+            Assertions.assertTrue(lasts.get(lasts.size() - 1));
+            Assertions.assertEquals(1, lasts.stream().filter(last -> last).count());
+        }
+        sender.closeOutbound();
+        receiver.closeInbound();
+    }
+
+    @Test
+    public void testNegotiation() throws Exception {
+        PerMessageDeflate config = PerMessageDeflate.newConfig().withServerMaxWindowBits(10).withCompressionThreshold(100);
+        Assertions.assertEquals("permessage-deflate; client_max_window_bits; server_max_window_bits=10", config.offer());
+
+        DeflateCodec codec = DeflateCodec.negotiate(config, "permessage-deflate; server_max_window_bits=10", 1024);
+        Assertions.assertFalse(codec.shouldCompress(99));
+        Assertions.assertTrue(codec.shouldCompress(100));
+
+        // The JDK deflater cannot limit its window, so messages go out uncompressed
+        Assertions.assertFalse(DeflateCodec.negotiate(config, "permessage-deflate; client_max_window_bits=9", 1024).shouldCompress(1000));
+
+        Assertions.assertThrows(ProtocolException.class, () -> DeflateCodec.negotiate(config, "x-webkit-deflate-frame", 1024));
+        Assertions.assertThrows(ProtocolException.class, () -> DeflateCodec.negotiate(config, "permessage-deflate; server_max_window_bits=12", 1024));
+        Assertions.assertThrows(ProtocolException.class, () -> DeflateCodec.negotiate(config, "permessage-deflate; server_no_context_takeover; server_no_context_takeover", 1024));
+        Assertions.assertThrows(ProtocolException.class, () -> DeflateCodec.negotiate(config, "permessage-deflate; unknown", 1024));
+    }
+}
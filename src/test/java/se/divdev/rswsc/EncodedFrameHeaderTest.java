@@ -0,0 +1,31 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class EncodedFrameHeaderTest {
+
+    private static FrameHeader header(final boolean finalFrame, final OpCode opCode, final int length) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + FrameEncoder.MAX_HEADER_SIZE + length);
+        frame.put((byte) 0x55).put((byte) 0x55);
+        int start = frame.position();
+        FrameEncoder.encode(frame, finalFrame, opCode, true, 0x01020304, new byte[length], 0, length);
+        frame.position(start);
+        return new EncodedFrameHeader(frame);
+    }
+
+    @Test
+    public void testHeaderIsReadFromPosition() {
+        for (int length : new int[]{0, 125, 126, 0xFFFF, 0x10000}) {
+            FrameHeader header = header(length % 2 == 0, OpCode.BINARY, length);
+            Assertions.assertEquals(OpCode.BINARY, header.getOpCode());
+            Assertions.assertEquals(length % 2 == 0, header.isFinalFrame());
+            Assertions.assertTrue(header.isMasked());
+            Assertions.assertFalse(header.isCompressed());
+            Assertions.assertEquals(length, header.payloadSize());
+        }
+        Assertions.assertEquals(OpCode.PING, header(true, OpCode.PING, 4).getOpCode());
+    }
+}
@@ -0,0 +1,153 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventDispatcherTest {
+
+    @Test
+    public void testEventsAreDeliveredInOrderOneAtATime() throws Exception {
+        int numberOfEvents = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Integer> delivered = new ArrayList<>();
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(numberOfEvents);
+
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.ORDERED, 16, executor, (opCode, finalFragment, payload) -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            delivered.add(payload.length);
+            concurrent.decrementAndGet();
+            done.countDown();
+        });
+        for (int i = 0; i < numberOfEvents; i++) {
+            dispatcher.dispatch(OpCode.BINARY, true, new byte[i % 100]);
+        }
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assertions.assertEquals(1, maxConcurrent.get());
+        for (int i = 0; i < numberOfEvents; i++) {
+            Assertions.assertEquals(i % 100, delivered.get(i));
+        }
+    }
+
+    @Test
+    public void testCallerRunsDeliversInline() {
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.CALLER_RUNS, 16, Runnable::run,
+                (opCode, finalFragment, payload) -> threads.add(Thread.currentThread()));
+        dispatcher.dispatch(OpCode.TEXT, true, new byte[0]);
+        Assertions.assertEquals(1, threads.size());
+        Assertions.assertSame(caller, threads.get(0));
+    }
+
+    @Test
+    public void testBufferChunksAreReleasedAfterDelivery() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Boolean> readOnly = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.ORDERED, 16, executor, new EventDispatcher.Sink() {
+            @Override
+            public void deliver(final OpCode opCode, final boolean finalFragment, final byte[] payload) {
+            }
+
+            @Override
+            public void deliver(final OpCode opCode, final boolean finalFragment, final ByteBuffer payload) {
+                readOnly.add(payload.isReadOnly() && payload.remaining() == 3);
+                done.countDown();
+            }
+        });
+        PooledBuffer chunk = new BufferPool(true).acquire(3);
+        dispatcher.dispatch(OpCode.BINARY, true, chunk.buffer().asReadOnlyBuffer(), chunk);
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, readOnly.size());
+        Assertions.assertTrue(readOnly.get(0));
+        Assertions.assertEquals(0, chunk.references());
+    }
+
+    @Test
+    public void testFullQueueHoldsReadGateInsteadOfWaiting() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Integer> delivered = new ArrayList<>();
+        ReadGate gate = new ReadGate(true);
+        AtomicInteger resumed = new AtomicInteger();
+        gate.onOpen(resumed::incrementAndGet);
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.ORDERED, 4, tasks::add,
+                (opCode, finalFragment, payload) -> delivered.add(payload.length), ClientMetrics.NOOP, gate);
+
+        // Nothing is delivered until the task runs, so the ring fills up without the caller waiting
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(OpCode.BINARY, true, new byte[i]);
+        }
+        Assertions.assertFalse(gate.isOpen());
+        Assertions.assertEquals(1, tasks.size());
+
+        tasks.remove(0).run();
+        Assertions.assertTrue(gate.isOpen());
+        Assertions.assertEquals(1, resumed.get());
+        Assertions.assertEquals(10, delivered.size());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(i, delivered.get(i));
+        }
+    }
+
+    @Test
+    public void testReadGateNeverStaysShutUnderContention() throws Exception {
+        int numberOfEvents = 1_000_000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ReadGate gate = new ReadGate(true);
+        AtomicInteger delivered = new AtomicInteger();
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.ORDERED, 2, executor,
+                (opCode, finalFragment, payload) -> delivered.incrementAndGet(), ClientMetrics.NOOP, gate);
+
+        // Waits for the gate like the read loop, a backlog that is never released shows up as a timeout
+        for (int i = 0; i < numberOfEvents; i++) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!gate.isOpen()) {
+                Assertions.assertTrue(System.nanoTime() - deadline < 0, "Read gate stuck shut after " + i + " events");
+                gate.awaitOpen(1, TimeUnit.MILLISECONDS);
+            }
+            dispatcher.dispatch(OpCode.BINARY, true, new byte[0]);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (delivered.get() < numberOfEvents && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        executor.shutdown();
+        Assertions.assertEquals(numberOfEvents, delivered.get());
+        Assertions.assertTrue(gate.isOpen());
+    }
+
+    @Test
+    public void testRejectedDrainDoesNotStopDelivery() {
+        List<Integer> delivered = new ArrayList<>();
+        AtomicInteger executions = new AtomicInteger();
+        EventDispatcher dispatcher = new EventDispatcher(DispatchMode.ORDERED, 16, task -> {
+            if (executions.incrementAndGet() == 1) {
+                throw new RejectedExecutionException();
+            }
+            task.run();
+        }, (opCode, finalFragment, payload) -> delivered.add(payload.length));
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> dispatcher.dispatch(OpCode.BINARY, true, new byte[1]));
+        dispatcher.dispatch(OpCode.BINARY, true, new byte[2]);
+        Assertions.assertEquals(Arrays.asList(1, 2), delivered);
+    }
+}
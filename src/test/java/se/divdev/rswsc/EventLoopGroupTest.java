@@ -0,0 +1,141 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class EventLoopGroupTest {
+
+    private static RswsClient connect(final RswsClientBuilder builder, final LinkedBlockingQueue<String> delivered) throws Exception {
+        return builder
+                .withEventHandler(new WebSocketEvent() {
+                    @Override
+                    public void onData(final boolean finalFragment, final byte[] payload) {
+                        delivered.add(new String(payload));
+                    }
+                })
+                .build()
+                .connect();
+    }
+
+    @Test
+    public void testClientsShareOneLoop() throws Exception {
+        int numberOfClients = 3;
+        List<LoopbackServer> servers = new ArrayList<>();
+        List<RswsClient> clients = new ArrayList<>();
+        List<LinkedBlockingQueue<String>> delivered = new ArrayList<>();
+        try (EventLoopGroup group = new EventLoopGroup(1)) {
+            for (int i = 0; i < numberOfClients; i++) {
+                LoopbackServer server = new LoopbackServer();
+                servers.add(server);
+                delivered.add(new LinkedBlockingQueue<>());
+                RswsClient client = connect(RswsClientBuilder.newBuilder(server.uri()).withEventLoopGroup(group), delivered.get(i));
+                clients.add(client);
+                client.runAsync();
+            }
+            for (int i = 0; i < numberOfClients; i++) {
+                servers.get(i).write(LoopbackServer.frame(0x82, ("to " + i).getBytes()));
+                clients.get(i).sendBinary(("from " + i).getBytes()).get(10, TimeUnit.SECONDS);
+            }
+            for (int i = 0; i < numberOfClients; i++) {
+                Assertions.assertEquals("to " + i, delivered.get(i).poll(10, TimeUnit.SECONDS));
+                byte[] frame = servers.get(i).readFrame();
+                Assertions.assertEquals((byte) 0x82, frame[0]);
+                Assertions.assertEquals("from " + i, new String(frame, 1, frame.length - 1));
+            }
+        } finally {
+            for (RswsClient client : clients) {
+                client.close();
+            }
+            for (LoopbackServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSlowHandlerDoesNotHoldUpOtherClients() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LinkedBlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        try (EventLoopGroup group = new EventLoopGroup(2);
+             LoopbackServer slowServer = new LoopbackServer();
+             LoopbackServer server = new LoopbackServer()) {
+            RswsClient slow = RswsClientBuilder.newBuilder(slowServer.uri())
+                    .withEventLoopGroup(group)
+                    .withEventHandler(new WebSocketEvent() {
+                        @Override
+                        public void onData(final boolean finalFragment, final byte[] payload) {
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    })
+                    .build()
+                    .connect();
+            RswsClient client = connect(RswsClientBuilder.newBuilder(server.uri()).withEventLoopGroup(group), delivered);
+            try {
+                slow.runAsync();
+                client.runAsync();
+                slowServer.write(LoopbackServer.frame(0x82, "stuck".getBytes()));
+                Thread.sleep(50);
+                server.write(LoopbackServer.frame(0x82, "through".getBytes()));
+
+                Assertions.assertEquals("through", delivered.poll(5, TimeUnit.SECONDS));
+            } finally {
+                release.countDown();
+                slow.close();
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testShutReadGatePausesReading() throws Exception {
+        ReadGate readGate = new ReadGate(false);
+        LinkedBlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        try (EventLoopGroup group = new EventLoopGroup(1);
+             LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = connect(RswsClientBuilder.newBuilder(server.uri())
+                    .withEventLoopGroup(group)
+                    .withReadGate(readGate), delivered);
+            try {
+                client.runAsync();
+                server.write(LoopbackServer.frame(0x82, "held".getBytes()));
+                Assertions.assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+
+                readGate.open();
+                Assertions.assertEquals("held", delivered.poll(10, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDisconnectClosesOnceCloseFrameIsWritten() throws Exception {
+        try (EventLoopGroup group = new EventLoopGroup(1);
+             LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = connect(RswsClientBuilder.newBuilder(server.uri()).withEventLoopGroup(group), new LinkedBlockingQueue<>());
+            try {
+                CompletableFuture<Void> closed = client.runAsync();
+                client.sendBinary("last".getBytes());
+                client.disconnect();
+
+                Assertions.assertEquals("last", new String(server.readFrame(), 1, 4));
+                Assertions.assertEquals((byte) 0x88, server.readFrame()[0]);
+                Assertions.assertEquals(-1, server.socket().getInputStream().read());
+                closed.get(10, TimeUnit.SECONDS);
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
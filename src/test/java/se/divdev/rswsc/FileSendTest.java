@@ -0,0 +1,117 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FileSendTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file(final byte[] content) throws Exception {
+        return Files.write(directory.resolve("file-" + content.length), content);
+    }
+
+    @Test
+    public void testRegionIsFragmentedAtMaxFrameSize() throws Exception {
+        byte[] content = new byte[2500];
+        new Random(42).nextBytes(content);
+        Path path = file(content);
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                    .withMaxFrameSize(1000)
+                    .build()
+                    .connect();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                client.runAsync();
+                CompletableFuture<Void> sent = client.send(OpCode.BINARY, channel, 100, 2300);
+
+                byte[] first = server.readFrame();
+                byte[] second = server.readFrame();
+                byte[] last = server.readFrame();
+                sent.get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals((byte) 0x02, first[0]);
+                Assertions.assertEquals((byte) 0x00, second[0]);
+                Assertions.assertEquals((byte) 0x80, last[0]);
+                Assertions.assertArrayEquals(Arrays.copyOfRange(content, 100, 1100), Arrays.copyOfRange(first, 1, first.length));
+                Assertions.assertArrayEquals(Arrays.copyOfRange(content, 1100, 2100), Arrays.copyOfRange(second, 1, second.length));
+                Assertions.assertArrayEquals(Arrays.copyOfRange(content, 2100, 2400), Arrays.copyOfRange(last, 1, last.length));
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyFileIsOneEmptyFrame() throws Exception {
+        Path path = file(new byte[0]);
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri()).build().connect();
+            try {
+                client.runAsync();
+                client.sendFile(path).get(10, TimeUnit.SECONDS);
+
+                Assertions.assertArrayEquals(new byte[]{(byte) 0x82}, server.readFrame());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testQueuedFramesStayBoundedWithoutBackpressurePolicy() throws Exception {
+        int frameSize = 16 * 1024;
+        int fileSize = 8 * 1024 * 1024;
+        long highWaterMark = 64 * 1024;
+        Path path = file(new byte[fileSize]);
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                    .withMaxFrameSize(frameSize)
+                    .withWriteBufferWaterMarks(16 * 1024, highWaterMark)
+                    .withBackpressurePolicy(BackpressurePolicy.NONE)
+                    .build()
+                    .connect();
+            try {
+                client.runAsync();
+                AtomicLong maxPending = new AtomicLong();
+                CompletableFuture<Void> sent = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return client.sendFile(path);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }).thenCompose(written -> written);
+
+                // Nothing read, so the sender is held back once the socket buffers are full
+                for (int i = 0; i < 30; i++) {
+                    maxPending.accumulateAndGet(client.pendingWriteBytes(), Math::max);
+                    Thread.sleep(10);
+                }
+                Assertions.assertFalse(sent.isDone());
+                Assertions.assertTrue(maxPending.get() <= highWaterMark + frameSize + 8, "Pending " + maxPending.get());
+
+                AtomicLong received = server.discardInput();
+                sent.get(20, TimeUnit.SECONDS);
+                long expected = fileSize + (long) fileSize / frameSize * 8;
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (received.get() < expected && System.nanoTime() - deadline < 0) {
+                    Thread.sleep(1);
+                }
+                Assertions.assertEquals(expected, received.get());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
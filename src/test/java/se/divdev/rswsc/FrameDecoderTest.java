@@ -0,0 +1,76 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameDecoderTest {
+
+    private final List<String> frames = new ArrayList<>();
+
+    private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+
+    private void onFrame(final FrameDecoder frame, final ByteBuffer payload, final boolean endOfFrame) {
+        Assertions.assertEquals(current.size(), frame.payloadOffset());
+        while (payload.hasRemaining()) {
+            current.write(payload.get());
+        }
+        if (endOfFrame) {
+            frames.add(frame.getOpCode() + ":" + frame.isFinalFrame() + ":" + new String(current.toByteArray()));
+            current.reset();
+        }
+    }
+
+    private static byte[] concat(final byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testCoalescedFrames() throws Exception {
+        byte[] data = concat(
+                WebSocketFrame.outgoing(OpCode.TEXT).build(false, "Hel".getBytes()),
+                WebSocketFrame.outgoing(OpCode.PING).build(true, "ping".getBytes()),
+                WebSocketFrame.outgoing(OpCode.CONTINUATION).build(true, "lo!".getBytes()),
+                WebSocketFrame.outgoing(OpCode.BINARY).build(true));
+
+        new FrameDecoder().decode(ByteBuffer.wrap(data), this::onFrame);
+
+        Assertions.assertEquals(4, frames.size());
+        Assertions.assertEquals("TEXT:false:Hel", frames.get(0));
+        Assertions.assertEquals("PING:true:ping", frames.get(1));
+        Assertions.assertEquals("CONTINUATION:true:lo!", frames.get(2));
+        Assertions.assertEquals("BINARY:true:", frames.get(3));
+    }
+
+    @Test
+    public void testSplitFrames() throws Exception {
+        String payload = new String(new char[11000]).replace("\0", "HELLO!");
+        byte[] data = concat(
+                WebSocketFrame.outgoing(OpCode.TEXT).build(true, payload.getBytes()),
+                WebSocketFrame.outgoing(OpCode.TEXT).build(true, "short".getBytes()));
+
+        FrameDecoder decoder = new FrameDecoder();
+        for (byte b : data) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), this::onFrame);
+        }
+
+        Assertions.assertEquals(2, frames.size());
+        Assertions.assertEquals("TEXT:true:" + payload, frames.get(0));
+        Assertions.assertEquals("TEXT:true:short", frames.get(1));
+    }
+
+    @Test
+    public void testFaultyOpCode() {
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new FrameDecoder().decode(ByteBuffer.wrap(new byte[]{4, 0}), this::onFrame));
+    }
+}
@@ -0,0 +1,125 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class FrameInterceptorTest {
+
+    private static String text(final ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+
+    @Test
+    public void testInboundChainRunsInOrderAndStopsAtDrop() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        LinkedBlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onInbound(final FrameHeader header, final ByteBuffer payload, final boolean endOfFrame) {
+                            // Consumes the payload, the next interceptor must still see all of it
+                            calls.add("first " + text(payload));
+                            payload.limit(payload.position());
+                            return true;
+                        }
+                    })
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onInbound(final FrameHeader header, final ByteBuffer payload, final boolean endOfFrame) {
+                            String text = text(payload);
+                            calls.add("second " + text);
+                            return !text.equals("drop");
+                        }
+                    })
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onInbound(final FrameHeader header, final ByteBuffer payload, final boolean endOfFrame) {
+                            calls.add("third " + text(payload));
+                            return true;
+                        }
+                    })
+                    .withEventHandler(new WebSocketEvent() {
+                        @Override
+                        public void onData(final boolean finalFragment, final byte[] payload) {
+                            delivered.add(new String(payload));
+                        }
+                    })
+                    .build()
+                    .connect();
+            client.runAsync();
+            try {
+                server.write(LoopbackServer.frame(0x82, "drop".getBytes()));
+                server.write(LoopbackServer.frame(0x82, "keep".getBytes()));
+
+                Assertions.assertEquals("keep", delivered.poll(10, TimeUnit.SECONDS));
+                Assertions.assertEquals(Arrays.asList("first drop", "second drop", "first keep", "second keep", "third keep"), calls);
+                Assertions.assertTrue(delivered.isEmpty());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testOutboundFramesAreReadOnlyAndDroppedFramesComplete() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        PreparedFrame prepared = PreparedFrame.of(OpCode.BINARY, "prepared".getBytes(), MaskKeyGenerator.fixed(0x01020304));
+        byte[] preparedBytes = new byte[prepared.size()];
+        prepared.frame().get(preparedBytes);
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onOutbound(final FrameHeader header, final ByteBuffer frame) {
+                            calls.add("first " + header.getOpCode());
+                            try {
+                                frame.put(frame.position() + 6, (byte) 0);
+                                calls.add("written");
+                            } catch (ReadOnlyBufferException expected) {
+                            }
+                            frame.position(frame.limit());
+                            return header.getOpCode() != OpCode.TEXT;
+                        }
+                    })
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onOutbound(final FrameHeader header, final ByteBuffer frame) {
+                            calls.add("second " + header.getOpCode() + " " + frame.remaining());
+                            return true;
+                        }
+                    })
+                    .build()
+                    .connect();
+            client.runAsync();
+            try {
+                CompletableFuture<Void> dropped = client.sendText("x");
+                dropped.get(10, TimeUnit.SECONDS);
+                client.send(prepared).get(10, TimeUnit.SECONDS);
+
+                byte[] received = server.readFrame();
+                Assertions.assertEquals((byte) 0x82, received[0]);
+                Assertions.assertEquals("prepared", new String(received, 1, received.length - 1));
+                Assertions.assertEquals(Arrays.asList("first TEXT", "first BINARY", "second BINARY " + prepared.size()), calls);
+
+                byte[] after = new byte[prepared.size()];
+                prepared.frame().get(after);
+                Assertions.assertArrayEquals(preparedBytes, after);
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
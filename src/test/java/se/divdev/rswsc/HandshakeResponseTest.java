@@ -0,0 +1,64 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HandshakeResponseTest {
+
+    private static final String RESPONSE = "HTTP/1.1 101 Switching Protocols\r\n" +
+            "upgrade: WebSocket\r\n" +
+            "Connection: keep-alive, Upgrade\r\n" +
+            "Sec-WebSocket-Extensions: permessage-deflate\r\n" +
+            "sec-websocket-extensions: x-other\r\n" +
+            "\r\n";
+
+    @Test
+    public void testParsesAcrossReadsAndKeepsFollowingBytes() throws Exception {
+        byte[] frame = {(byte) 0x81, 0x02, 'h', 'i'};
+        ByteBuffer bytes = ByteBuffer.allocate(RESPONSE.length() + frame.length);
+        bytes.put(RESPONSE.getBytes(StandardCharsets.US_ASCII)).put(frame).flip();
+
+        HandshakeResponse response = new HandshakeResponse();
+        boolean complete = false;
+        // Three bytes per read, so lines and the final CRLF are split
+        while (!complete) {
+            ByteBuffer read = bytes.slice();
+            read.limit(Math.min(3, read.remaining()));
+            complete = response.parse(read);
+            bytes.position(bytes.position() + read.position());
+        }
+        Assertions.assertEquals(frame.length, bytes.remaining());
+        Assertions.assertEquals((byte) 0x81, bytes.get());
+
+        Assertions.assertTrue(response.hasStatus("HTTP/1.1", 101));
+        Assertions.assertFalse(response.hasStatus("HTTP/1.1", 10));
+        Assertions.assertEquals("WebSocket", response.header("Upgrade"));
+        Assertions.assertTrue(response.headerContainsToken("connection", "upgrade"));
+        Assertions.assertFalse(response.headerContainsToken("Connection", "close"));
+        Assertions.assertEquals("permessage-deflate, x-other", response.header("Sec-WebSocket-Extensions"));
+        Assertions.assertNull(response.header("Sec-WebSocket-Accept"));
+    }
+
+    @Test
+    public void testBareLineFeeds() throws Exception {
+        HandshakeResponse response = new HandshakeResponse();
+        Assertions.assertTrue(response.parse(ByteBuffer.wrap("HTTP/1.1 101\nUpgrade: websocket\n\n".getBytes(StandardCharsets.US_ASCII))));
+        Assertions.assertTrue(response.hasStatus("HTTP/1.1", 101));
+        Assertions.assertEquals("websocket", response.header("upgrade"));
+    }
+
+    @Test
+    public void testRejectsOversizedResponse() {
+        HandshakeResponse response = new HandshakeResponse();
+        ByteBuffer endless = ByteBuffer.allocate(HandshakeResponse.MAX_SIZE + 1);
+        while (endless.hasRemaining()) {
+            endless.put((byte) 'a');
+        }
+        endless.flip();
+        Assertions.assertThrows(ProtocolException.class, () -> response.parse(endless));
+    }
+}
@@ -0,0 +1,49 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HashedWheelTimerTest {
+
+    @Test
+    public void testExpiresInOrderAcrossRounds() throws Exception {
+        // Eight buckets of 5 ms, so the later timeouts need more than one round of the wheel
+        try (HashedWheelTimer timer = new HashedWheelTimer(Duration.ofMillis(5), 8)) {
+            List<Integer> expired = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(4);
+            long start = System.nanoTime();
+            for (int delay : new int[]{90, 0, 30, 60}) {
+                timer.schedule(() -> {
+                    expired.add(delay);
+                    done.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(Arrays.asList(0, 30, 60, 90), expired);
+            Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        try (HashedWheelTimer timer = new HashedWheelTimer(Duration.ofMillis(1), 16)) {
+            CountDownLatch cancelled = new CountDownLatch(1);
+            CountDownLatch kept = new CountDownLatch(1);
+            HashedWheelTimer.Timeout timeout = timer.schedule(cancelled::countDown, 20, TimeUnit.MILLISECONDS);
+            timer.schedule(kept::countDown, 40, TimeUnit.MILLISECONDS);
+            Assertions.assertTrue(timeout.cancel());
+            Assertions.assertFalse(timeout.cancel());
+            Assertions.assertTrue(kept.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, cancelled.getCount());
+            Assertions.assertTrue(timeout.isCancelled());
+        }
+        Assertions.assertThrows(IllegalStateException.class, () -> HashedWheelTimer.shared().close());
+    }
+}
@@ -0,0 +1,55 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverAllValues() {
+        int previous = -1;
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            Assertions.assertTrue(index > previous);
+            Assertions.assertTrue(LatencyHistogram.highestInBucket(index) >= value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.highestInBucket(index - 1) < value);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.percentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assertions.assertEquals(1000, histogram.count());
+        Assertions.assertEquals(1000, histogram.max());
+        Assertions.assertEquals(500.5, histogram.mean(), 0.001);
+        long p50 = histogram.percentile(50);
+        Assertions.assertTrue(p50 >= 500 && p50 <= 500 * 1.07, "p50 " + p50);
+        long p99 = histogram.percentile(99);
+        Assertions.assertTrue(p99 >= 990 && p99 <= 1000, "p99 " + p99);
+        Assertions.assertEquals(1000, histogram.percentile(100));
+    }
+
+    @Test
+    public void testJmxRegistration() throws Exception {
+        try (JmxClientMetrics metrics = JmxClientMetrics.register("test")) {
+            metrics.frameIn(OpCode.TEXT, 10);
+            metrics.frameIn(OpCode.TEXT, 5);
+            metrics.dispatchLag(2000);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> JmxClientMetrics.register("test"));
+
+            Map<?, ?> framesIn = (Map<?, ?>) ManagementFactory.getPlatformMBeanServer().getAttribute(metrics.objectName(), "FramesIn");
+            Assertions.assertNotNull(framesIn);
+            Assertions.assertEquals(2L, metrics.getFramesIn().get("TEXT"));
+            Assertions.assertEquals(15L, metrics.getBytesIn().get("TEXT"));
+            Assertions.assertEquals(1L, metrics.getDispatchLagNanos().get("count"));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package se.divdev.rswsc;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts one client on the loopback interface and answers its upgrade, for tests that need a connection
+ */
+class LoopbackServer implements Closeable {
+
+    private final ServerSocket server;
+
+    private final CompletableFuture<Socket> accepted;
+
+    LoopbackServer() throws IOException {
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.accepted = CompletableFuture.supplyAsync(this::accept);
+    }
+
+    URI uri() throws URISyntaxException {
+        return new URI("ws://127.0.0.1:" + server.getLocalPort() + "/");
+    }
+
+    private Socket accept() {
+        try {
+            Socket socket = server.accept();
+            InputStream input = socket.getInputStream();
+            StringBuilder request = new StringBuilder();
+            while (request.indexOf("\r\n\r\n") < 0) {
+                int b = input.read();
+                if (b < 0) {
+                    throw new IOException("Closed before the upgrade request");
+                }
+                request.append((char) b);
+            }
+            String key = null;
+            for (String line : request.toString().split("\r\n")) {
+                if (line.startsWith("Sec-WebSocket-Key:")) {
+                    key = line.substring(line.indexOf(':') + 1).trim();
+                }
+            }
+            OutputStream output = socket.getOutputStream();
+            output.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + WebSocketUtils.generateSecWebSocketAccept(key) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            output.flush();
+            return socket;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The accepted connection, once upgraded
+     */
+    Socket socket() throws Exception {
+        return accepted.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Write the bytes as they are, flushed as one write
+     */
+    void write(final byte[] bytes) throws Exception {
+        OutputStream output = socket().getOutputStream();
+        output.write(bytes);
+        output.flush();
+    }
+
+    /**
+     * Read one frame sent by the client, returning its first byte and unmasked payload
+     */
+    byte[] readFrame() throws Exception {
+        DataInputStream input = new DataInputStream(socket().getInputStream());
+        int first = input.readUnsignedByte();
+        int length = input.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = input.readUnsignedShort();
+        } else if (length == 127) {
+            length = Math.toIntExact(input.readLong());
+        }
+        byte[] mask = new byte[4];
+        input.readFully(mask);
+        byte[] frame = new byte[1 + length];
+        frame[0] = (byte) first;
+        input.readFully(frame, 1, length);
+        for (int i = 0; i < length; i++) {
+            frame[1 + i] ^= mask[i & 3];
+        }
+        return frame;
+    }
+
+    /**
+     * Read and throw away everything the client sends from now on, counting the bytes
+     */
+    AtomicLong discardInput() throws Exception {
+        InputStream input = socket().getInputStream();
+        AtomicLong discarded = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    discarded.addAndGet(read);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "loopback-discard");
+        reader.setDaemon(true);
+        reader.start();
+        return discarded;
+    }
+
+    /**
+     * An unmasked frame, as sent by a server
+     */
+    static byte[] frame(final int firstByte, final byte[] payload) {
+        byte[] frame = new byte[2 + payload.length];
+        frame[0] = (byte) firstByte;
+        frame[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 2, payload.length);
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        accepted.thenAccept(socket -> {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MaskingTest {
+
+    private final Random random = new Random(42);
+
+    private static byte[] naive(final byte[] data, final byte[] mask, final int maskIndex) {
+        byte[] result = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            result[i] = (byte) (data[i] ^ mask[(maskIndex + i) % 4]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testVectorMaskingIsUsedWhereExpected() {
+        // Set by the build when running against the Java 17 classes with the Vector API
+        Assertions.assertEquals(Boolean.getBoolean("rswsc.masking.expectVector"), VectorMasking.AVAILABLE);
+    }
+
+    @Test
+    public void testArrayMaskingMatchesBytewiseMaskingAtAnyOffset() {
+        for (int length = 0; length < 300; length += 1 + length / 16) {
+            for (int offset = 0; offset < 4; offset++) {
+                for (int maskIndex = 0; maskIndex < 5; maskIndex++) {
+                    byte[] data = new byte[length];
+                    byte[] mask = new byte[4];
+                    random.nextBytes(data);
+                    random.nextBytes(mask);
+                    byte[] expected = naive(data, mask, maskIndex);
+
+                    byte[] array = new byte[offset + length + 3];
+                    System.arraycopy(data, 0, array, offset, length);
+                    Masking.mask(array, offset, length, ByteBuffer.wrap(mask).getInt(), maskIndex);
+                    Assertions.assertArrayEquals(expected, Arrays.copyOfRange(array, offset, offset + length));
+                    Assertions.assertArrayEquals(new byte[3], Arrays.copyOfRange(array, offset + length, array.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaskingMatchesBytewiseMasking() {
+        for (int length : new int[]{0, 1, 3, 7, 8, 9, 63, 64, 65, 125, 126, 1000, 65537}) {
+            for (int maskIndex = 0; maskIndex < 8; maskIndex++) {
+                byte[] data = new byte[length];
+                byte[] mask = new byte[4];
+                random.nextBytes(data);
+                random.nextBytes(mask);
+                byte[] expected = naive(data, mask, maskIndex);
+                int intMask = ByteBuffer.wrap(mask).getInt();
+
+                byte[] array = data.clone();
+                Masking.mask(array, 0, length, intMask, maskIndex);
+                Assertions.assertArrayEquals(expected, array);
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(length + 3).order(ByteOrder.LITTLE_ENDIAN);
+                direct.position(3);
+                direct.put(data);
+                Masking.mask(direct, 3, length, intMask, maskIndex);
+                byte[] fromDirect = new byte[length];
+                direct.position(3);
+                direct.get(fromDirect);
+                Assertions.assertArrayEquals(expected, fromDirect);
+
+                ByteBuffer source = ByteBuffer.allocateDirect(length + 1).order(maskIndex % 2 == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                source.put(data).flip();
+                ByteBuffer copy = ByteBuffer.allocate(length + 5);
+                copy.position(5);
+                Masking.maskCopy(source, copy, intMask, maskIndex);
+                Assertions.assertFalse(source.hasRemaining());
+                Assertions.assertEquals(length + 5, copy.position());
+                byte[] copied = new byte[length];
+                copy.position(5);
+                copy.get(copied);
+                Assertions.assertArrayEquals(expected, copied);
+            }
+        }
+    }
+}
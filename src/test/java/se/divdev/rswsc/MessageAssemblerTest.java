@@ -0,0 +1,78 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class MessageAssemblerTest {
+
+    private final BufferPool pool = new BufferPool(false);
+
+    private static byte[] bytes(final int length, final int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testFragmentsAreReassembledInChunks() throws Exception {
+        MessageAssembler assembler = new MessageAssembler(pool, 1 << 20, false);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 10; i++) {
+            byte[] fragment = bytes(3000, i);
+            expected.write(fragment);
+            Assertions.assertTrue(assembler.fits(fragment.length));
+            assembler.append(i == 0 ? OpCode.BINARY : OpCode.CONTINUATION, ByteBuffer.wrap(fragment));
+        }
+        WebSocketMessage message = assembler.finish();
+        Assertions.assertTrue(assembler.isEmpty());
+        Assertions.assertEquals(OpCode.BINARY, message.opCode());
+        Assertions.assertEquals(30000, message.size());
+        Assertions.assertTrue(message.buffers().length > 1);
+        Assertions.assertArrayEquals(expected.toByteArray(), message.toByteArray());
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        byte[] chunk = new byte[777];
+        try (InputStream input = message.inputStream()) {
+            int read;
+            while ((read = input.read(chunk)) > 0) {
+                streamed.write(chunk, 0, read);
+            }
+        }
+        Assertions.assertArrayEquals(expected.toByteArray(), streamed.toByteArray());
+        message.release();
+    }
+
+    @Test
+    public void testSingleFrameFastPath() {
+        ByteBuffer readBuffer = ByteBuffer.wrap("xxHelloxx".getBytes());
+        readBuffer.position(2).limit(7);
+
+        WebSocketMessage borrowed = new MessageAssembler(pool, 1024, true).single(OpCode.TEXT, readBuffer);
+        Assertions.assertEquals("Hello", new String(borrowed.toByteArray()));
+        readBuffer.put(2, (byte) 'J');
+        Assertions.assertEquals("Jello", new String(borrowed.toByteArray()));
+
+        WebSocketMessage copied = new MessageAssembler(pool, 1024, false).single(OpCode.TEXT, readBuffer);
+        readBuffer.put(2, (byte) 'H');
+        Assertions.assertEquals("Jello", new String(copied.toByteArray()));
+        Assertions.assertEquals(2, readBuffer.position());
+        copied.release();
+    }
+
+    @Test
+    public void testMaxMessageSize() {
+        MessageAssembler assembler = new MessageAssembler(pool, 10, false);
+        assembler.append(OpCode.TEXT, ByteBuffer.wrap(bytes(8, 0)));
+        Assertions.assertTrue(assembler.fits(2));
+        Assertions.assertFalse(assembler.fits(3));
+        assembler.discard();
+        Assertions.assertTrue(assembler.isEmpty());
+        Assertions.assertTrue(assembler.fits(10));
+    }
+}
@@ -0,0 +1,121 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class MessageStreamingTest {
+
+    private static final class RecordingChannel implements WritableByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public synchronized int write(final ByteBuffer source) {
+            int length = source.remaining();
+            while (source.hasRemaining()) {
+                written.write(source.get());
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return closed.getCount() > 0;
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        synchronized String written() {
+            return new String(written.toByteArray());
+        }
+    }
+
+    // Write the bytes in two parts with a pause between them, so they arrive in separate reads
+    private static void writeSplit(final LoopbackServer server, final byte[] bytes, final int at) throws Exception {
+        server.write(Arrays.copyOfRange(bytes, 0, at));
+        Thread.sleep(50);
+        server.write(Arrays.copyOfRange(bytes, at, bytes.length));
+    }
+
+    private static RswsClient connect(final LoopbackServer server, final LinkedBlockingQueue<RecordingChannel> channels,
+                                      final LinkedBlockingQueue<String> delivered) throws Exception {
+        RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                .withEventHandler(new WebSocketEvent() {
+                    @Override
+                    public WritableByteChannel onMessageStart(final OpCode opCode) {
+                        if (opCode != OpCode.BINARY) {
+                            return null;
+                        }
+                        RecordingChannel channel = new RecordingChannel();
+                        channels.add(channel);
+                        return channel;
+                    }
+
+                    @Override
+                    public void onData(final boolean finalFragment, final byte[] payload) {
+                        delivered.add(new String(payload));
+                    }
+                })
+                .build()
+                .connect();
+        client.runAsync();
+        server.socket().setTcpNoDelay(true);
+        return client;
+    }
+
+    @Test
+    public void testFragmentedMessageIsStreamedWholeAndChannelClosed() throws Exception {
+        LinkedBlockingQueue<RecordingChannel> channels = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = connect(server, channels, delivered);
+            try {
+                writeSplit(server, LoopbackServer.frame(0x02, "first part, ".getBytes()), 7);
+                writeSplit(server, LoopbackServer.frame(0x80, "second part".getBytes()), 1);
+                server.write(LoopbackServer.frame(0x81, "text".getBytes()));
+
+                RecordingChannel channel = channels.poll(10, TimeUnit.SECONDS);
+                Assertions.assertNotNull(channel);
+                Assertions.assertTrue(channel.closed.await(10, TimeUnit.SECONDS));
+                Assertions.assertEquals("first part, second part", channel.written());
+                Assertions.assertEquals("text", delivered.poll(10, TimeUnit.SECONDS));
+                Assertions.assertTrue(channels.isEmpty());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testChannelIsClosedWhenConnectionIsLost() throws Exception {
+        LinkedBlockingQueue<RecordingChannel> channels = new LinkedBlockingQueue<>();
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = connect(server, channels, new LinkedBlockingQueue<>());
+            try {
+                byte[] frame = LoopbackServer.frame(0x82, "never finished".getBytes());
+                server.write(Arrays.copyOf(frame, 7));
+                RecordingChannel channel = channels.poll(10, TimeUnit.SECONDS);
+                Assertions.assertNotNull(channel);
+
+                server.socket().close();
+                Assertions.assertTrue(channel.closed.await(10, TimeUnit.SECONDS));
+                Assertions.assertEquals("never", channel.written());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
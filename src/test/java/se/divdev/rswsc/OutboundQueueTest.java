@@ -0,0 +1,192 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class OutboundQueueTest {
+
+    private final BufferPool pool = new BufferPool(false);
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private final List<Integer> writes = new ArrayList<>();
+
+    private int writeLimit = Integer.MAX_VALUE;
+
+    private final OutboundQueue.Transport transport = new OutboundQueue.Transport() {
+        @Override
+        public void write(final ByteBuffer[] buffers, final int offset, final int length) {
+            writes.add(length);
+            int budget = writeLimit;
+            for (int i = offset; i < offset + length && budget > 0; i++) {
+                while (buffers[i].hasRemaining() && budget-- > 0) {
+                    written.write(buffers[i].get());
+                }
+            }
+        }
+
+        @Override
+        public void onWriteIncomplete() {
+        }
+
+        @Override
+        public void onWriteComplete() {
+        }
+
+        @Override
+        public void onWriteError(final IOException exception) {
+        }
+    };
+
+    private PooledBuffer frame(final String data) {
+        PooledBuffer frame = pool.acquire(data.length());
+        frame.buffer().put(data.getBytes()).flip();
+        return frame;
+    }
+
+    private PooledBuffer frame(final OpCode opCode, final String data) {
+        PooledBuffer frame = pool.acquire(data.length() + 1);
+        frame.buffer().put(opCode.value).put(data.getBytes()).flip();
+        return frame;
+    }
+
+    @Test
+    public void testPendingFramesAreCoalescedInOrder() {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            queue.offer(frame("f" + i + ";"));
+            expected.append("f").append(i).append(";");
+        }
+        Assertions.assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        Assertions.assertEquals(expected.toString(), new String(written.toByteArray()));
+        Assertions.assertEquals(2, writes.size());
+        Assertions.assertEquals(64, writes.get(0));
+        Assertions.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testIncompleteWriteResumes() throws Exception {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        queue.offer(frame("Hello"));
+        queue.offer(frame("World"));
+
+        writeLimit = 7;
+        Assertions.assertFalse(queue.drain());
+        Assertions.assertEquals("HelloWo", new String(written.toByteArray()));
+
+        writeLimit = Integer.MAX_VALUE;
+        Assertions.assertTrue(queue.drain());
+        Assertions.assertEquals("HelloWorld", new String(written.toByteArray()));
+    }
+
+    @Test
+    public void testWatermarksAndPromises() throws Exception {
+        List<Boolean> changes = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 4, 8, changes::add);
+        PooledBuffer first = frame("Hello");
+        CompletableFuture<Void> firstWritten = new CompletableFuture<>();
+        first.promise = firstWritten;
+        queue.offer(first);
+        Assertions.assertTrue(queue.isWritable());
+        queue.offer(frame("World"));
+        Assertions.assertFalse(queue.isWritable());
+        Assertions.assertEquals(10, queue.pendingBytes());
+
+        writeLimit = 5;
+        Assertions.assertFalse(queue.drain());
+        Assertions.assertTrue(firstWritten.isDone());
+        Assertions.assertFalse(queue.isWritable());
+
+        writeLimit = Integer.MAX_VALUE;
+        Assertions.assertTrue(queue.drain());
+        Assertions.assertTrue(queue.isWritable());
+        Assertions.assertEquals(Arrays.asList(false, true), changes);
+    }
+
+    @Test
+    public void testCloseFailsPromises() {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        PooledBuffer frame = frame("Hello");
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        frame.promise = promise;
+        queue.offer(frame);
+        queue.close();
+        Assertions.assertTrue(promise.isCompletedExceptionally());
+        Assertions.assertEquals(0, queue.pendingBytes());
+    }
+
+    @Test
+    public void testCloseAfterIncompleteWriteFailsPromises() throws Exception {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        List<CompletableFuture<Void>> promises = new ArrayList<>();
+        for (String data : new String[]{"Hello", "World"}) {
+            PooledBuffer frame = frame(data);
+            CompletableFuture<Void> promise = new CompletableFuture<>();
+            frame.promise = promise;
+            promises.add(promise);
+            queue.offer(frame);
+        }
+        tasks.clear();
+        writeLimit = 2;
+        Assertions.assertFalse(queue.drain());
+
+        // The transport never signals writable again
+        queue.close();
+        Assertions.assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        for (CompletableFuture<Void> promise : promises) {
+            Assertions.assertTrue(promise.isCompletedExceptionally());
+        }
+        Assertions.assertEquals(0, queue.pendingBytes());
+    }
+
+    @Test
+    public void testControlFramesGoAheadOfDataAtFrameBoundaries() throws Exception {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        queue.offer(frame(OpCode.BINARY, "aaaa"));
+        queue.offer(frame(OpCode.CONTINUATION, "bbbb"));
+        writeLimit = 2;
+        Assertions.assertFalse(queue.drain());
+
+        queue.offer(frame(OpCode.PING, "p"), true);
+        queue.offer(frame(OpCode.PONG, "q"), true);
+        writeLimit = Integer.MAX_VALUE;
+        Assertions.assertTrue(queue.drain());
+        Assertions.assertEquals("\002aaaa\011p\012q\000bbbb", new String(written.toByteArray(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testCloseWaitsForQueuedDataAndDropsLaterFrames() throws Exception {
+        OutboundQueue queue = new OutboundQueue(transport, tasks::add, null, 1024, 0, 0, Long.MAX_VALUE, writable -> {});
+        PooledBuffer data = frame(OpCode.BINARY, "aaaa");
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        data.promise = sent;
+        queue.offer(data);
+        queue.offer(frame(OpCode.CONNECTION_CLOSE, "c"), true);
+        PooledBuffer late = frame(OpCode.TEXT, "late");
+        CompletableFuture<Void> dropped = new CompletableFuture<>();
+        late.promise = dropped;
+        queue.offer(late);
+        queue.offer(frame(OpCode.PING, "p"), true);
+
+        Assertions.assertTrue(queue.drain());
+        Assertions.assertEquals("\002aaaa\010c", new String(written.toByteArray(), "ISO-8859-1"));
+        Assertions.assertTrue(sent.isDone());
+        Assertions.assertFalse(sent.isCompletedExceptionally());
+        Assertions.assertTrue(dropped.isCompletedExceptionally());
+        Assertions.assertEquals(0, queue.pendingBytes());
+    }
+}
@@ -0,0 +1,65 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class PingTrackerTest {
+
+    @Test
+    public void testMatchesOwnPongs() {
+        PingTracker tracker = new PingTracker();
+        long first = tracker.nextSequence();
+        long second = tracker.nextSequence();
+        ByteBuffer pong = ByteBuffer.wrap(PingTracker.payload(second));
+
+        Assertions.assertFalse(tracker.isAnswered(first));
+        Assertions.assertTrue(tracker.onPong(pong) >= 0);
+        Assertions.assertEquals(0, pong.position());
+        // A server may answer only the latest of several pings
+        Assertions.assertTrue(tracker.isAnswered(first));
+        Assertions.assertTrue(tracker.isAnswered(second));
+        Assertions.assertEquals(1, tracker.roundTrips().count());
+    }
+
+    @Test
+    public void testMatchesPongSplitAcrossReads() throws Exception {
+        PingTracker tracker = new PingTracker();
+        long sequence = tracker.nextSequence();
+        byte[] frame = WebSocketFrame.outgoing(OpCode.PONG, false).build(true, PingTracker.payload(sequence));
+        FrameDecoder decoder = new FrameDecoder();
+        long[] roundTrip = {-2};
+        FrameDecoder.FrameHandler handler = (header, payload, endOfFrame) -> {
+            long result = tracker.onPongPart(payload, endOfFrame);
+            if (endOfFrame) {
+                roundTrip[0] = result;
+            } else {
+                Assertions.assertEquals(-1, result);
+            }
+        };
+
+        decoder.decode(ByteBuffer.wrap(frame, 0, 9), handler);
+        Assertions.assertFalse(tracker.isAnswered(sequence));
+        decoder.decode(ByteBuffer.wrap(frame, 9, frame.length - 9), handler);
+        Assertions.assertTrue(roundTrip[0] >= 0);
+        Assertions.assertTrue(tracker.isAnswered(sequence));
+
+        // And whole again afterwards
+        sequence = tracker.nextSequence();
+        decoder.decode(ByteBuffer.wrap(WebSocketFrame.outgoing(OpCode.PONG, false).build(true, PingTracker.payload(sequence))), handler);
+        Assertions.assertTrue(tracker.isAnswered(sequence));
+    }
+
+    @Test
+    public void testIgnoresOtherPongs() {
+        PingTracker tracker = new PingTracker();
+        tracker.nextSequence();
+        Assertions.assertEquals(-1, tracker.onPong(ByteBuffer.allocate(0)));
+        Assertions.assertEquals(-1, tracker.onPong(ByteBuffer.allocate(PingTracker.PAYLOAD_SIZE)));
+        // Never sent
+        Assertions.assertEquals(-1, tracker.onPong(ByteBuffer.wrap(PingTracker.payload(5))));
+        Assertions.assertEquals(0, tracker.roundTrips().count());
+        Assertions.assertEquals(0, tracker.roundTrips().min());
+    }
+}
@@ -0,0 +1,53 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class PreparedFrameTest {
+
+    private static byte[] bytes(final PreparedFrame prepared) {
+        ByteBuffer frame = prepared.frame();
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testFrameCanBeReadRepeatedly() throws Exception {
+        PreparedFrame prepared = PreparedFrame.of(OpCode.TEXT, "subscribe".getBytes(), MaskKeyGenerator.fixed(0x01020304));
+
+        for (int i = 0; i < 2; i++) {
+            byte[] bytes = bytes(prepared);
+            Assertions.assertEquals(prepared.size(), bytes.length);
+            Assertions.assertEquals(0x01020304, ByteBuffer.wrap(bytes, 2, 4).getInt());
+            WebSocketFrame frame = WebSocketFrame.incoming(bytes);
+            Assertions.assertEquals(OpCode.TEXT, frame.getOpCode());
+            Assertions.assertTrue(frame.isFinalFrame());
+            Assertions.assertEquals("subscribe", new String(frame.getPayload()));
+        }
+    }
+
+    @Test
+    public void testZeroMaskLeavesPayloadAsIs() {
+        byte[] bytes = bytes(PreparedFrame.of(OpCode.BINARY, "plain".getBytes(), MaskKeyGenerator.fixed(0)));
+
+        Assertions.assertEquals("plain", new String(bytes, 6, bytes.length - 6));
+    }
+
+    @Test
+    public void testSendsCannotRewriteTheFrame() {
+        PreparedFrame prepared = PreparedFrame.binary("shared".getBytes());
+
+        Assertions.assertTrue(prepared.frame().isReadOnly());
+    }
+
+    @Test
+    public void testOversizedControlFrameIsRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PreparedFrame.of(OpCode.PING, new byte[126], MaskKeyGenerator.random()));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> PreparedFrame.of(OpCode.CONTINUATION, new byte[1], MaskKeyGenerator.random()));
+    }
+}
@@ -0,0 +1,41 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReadGateTest {
+
+    @Test
+    public void testOpeningWakesWaitersAndListener() throws Exception {
+        ReadGate gate = new ReadGate(false);
+        AtomicInteger opened = new AtomicInteger();
+        gate.onOpen(opened::incrementAndGet);
+
+        long started = System.nanoTime();
+        gate.awaitOpen(20, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assertions.assertFalse(gate.isOpen());
+
+        Thread opener = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            gate.open();
+        });
+        opener.start();
+        gate.awaitOpen(10, TimeUnit.SECONDS);
+        Assertions.assertTrue(gate.isOpen());
+        opener.join();
+        Assertions.assertEquals(1, opened.get());
+
+        gate.open();
+        Assertions.assertEquals(1, opened.get());
+        gate.shut();
+        Assertions.assertFalse(gate.isOpen());
+    }
+}
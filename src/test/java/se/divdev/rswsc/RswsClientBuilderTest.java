@@ -0,0 +1,56 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RswsClientBuilderTest {
+
+    // Connect to a server that reads the upgrade request and hangs up, returning the request
+    private static String request(final RswsClientBuilder builder, final ServerSocket server) throws Exception {
+        CompletableFuture<String> request = CompletableFuture.supplyAsync(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream input = socket.getInputStream();
+                StringBuilder read = new StringBuilder();
+                while (read.indexOf("\r\n\r\n") < 0) {
+                    int b = input.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    read.append((char) b);
+                }
+                return read.toString();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        RswsClient client = builder.build();
+        Assertions.assertThrows(IOException.class, client::connect);
+        return new String(request.get(10, TimeUnit.SECONDS).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testBuildsDoNotLeakHandshakeHeadersIntoEachOther() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            RswsClientBuilder builder = RswsClientBuilder.newBuilder(new URI("ws://127.0.0.1:" + server.getLocalPort() + "/"))
+                    .withHeader("X-Custom", "kept");
+
+            String deflate = request(builder.withPerMessageDeflate(PerMessageDeflate.newConfig()), server);
+            Assertions.assertTrue(deflate.contains("Sec-WebSocket-Extensions: permessage-deflate"));
+
+            String plain = request(builder, server);
+            Assertions.assertFalse(plain.contains("Sec-WebSocket-Extensions"));
+            Assertions.assertTrue(plain.contains("X-Custom: kept"));
+            Assertions.assertTrue(plain.contains("Upgrade: websocket"));
+        }
+    }
+}
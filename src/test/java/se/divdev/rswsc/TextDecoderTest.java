@@ -0,0 +1,53 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+public class TextDecoderTest {
+
+    @Test
+    public void testSequencesSplitAcrossFragments() throws Exception {
+        String text = "\u00e4\u20ac\ud834\udd1e and some ascii";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= bytes.length; split++) {
+            TextDecoder decoder = new TextDecoder();
+            StringBuilder decoded = new StringBuilder();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, split), false);
+            decoded.append(decoder.chars());
+            decoder.clear();
+            decoder.decode(ByteBuffer.wrap(bytes, split, bytes.length - split), true);
+            decoded.append(decoder.chars());
+            decoder.clear();
+            Assertions.assertEquals(text, decoded.toString());
+        }
+    }
+
+    @Test
+    public void testInvalidAndTruncatedInput() throws Exception {
+        TextDecoder decoder = new TextDecoder();
+        Assertions.assertThrows(CharacterCodingException.class,
+                () -> decoder.decode(ByteBuffer.wrap(new byte[]{'a', (byte) 0xC0, (byte) 0x80}), false));
+        decoder.decode(ByteBuffer.wrap(new byte[]{'b', (byte) 0xE2, (byte) 0x82}), false);
+        Assertions.assertThrows(CharacterCodingException.class, () -> decoder.decode(ByteBuffer.allocate(0), true));
+
+        decoder.decode(ByteBuffer.wrap("ok".getBytes()), true);
+        Assertions.assertEquals("ok", decoder.chars().toString());
+    }
+
+    @Test
+    public void testBufferGrows() throws Exception {
+        TextDecoder decoder = new TextDecoder();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("chunk ").append(i).append(' ');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        decoder.decode(ByteBuffer.wrap(bytes, 0, 5000), false);
+        decoder.decode(ByteBuffer.wrap(bytes, 5000, bytes.length - 5000), true);
+        Assertions.assertEquals(text.toString(), decoder.chars().toString());
+    }
+}
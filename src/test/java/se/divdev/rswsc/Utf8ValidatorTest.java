@@ -0,0 +1,55 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Utf8ValidatorTest {
+
+    private static boolean valid(final byte[] bytes, final int split) {
+        Utf8Validator validator = new Utf8Validator();
+        return validator.validate(ByteBuffer.wrap(bytes, 0, split))
+                && validator.validate(ByteBuffer.wrap(bytes, split, bytes.length - split))
+                && validator.isComplete();
+    }
+
+    private static boolean strictlyDecodable(final byte[] bytes) {
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testKnownSequences() {
+        Assertions.assertTrue(valid("Hello, w\u00f6rld \u20ac \ud834\udd1e".getBytes(StandardCharsets.UTF_8), 9));
+        Assertions.assertFalse(valid(new byte[]{(byte) 0xC0, (byte) 0x80}, 1));
+        Assertions.assertFalse(valid(new byte[]{(byte) 0xED, (byte) 0xA0, (byte) 0x80}, 2));
+        Assertions.assertFalse(valid(new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, 0));
+        Assertions.assertFalse(valid(new byte[]{'a', (byte) 0xE2, (byte) 0x82}, 2));
+    }
+
+    @Test
+    public void testAgreesWithStrictDecoder() {
+        Random random = new Random(7);
+        String sample = "json {\"k\": \"v\u00e5l\u00fce \u20ac\"} \ud834\udd1e";
+        for (int i = 0; i < 20_000; i++) {
+            byte[] bytes = (sample + i).getBytes(StandardCharsets.UTF_8);
+            if (i % 2 == 0) {
+                bytes[random.nextInt(bytes.length)] = (byte) random.nextInt();
+            }
+            boolean expected = strictlyDecodable(bytes);
+            Assertions.assertEquals(expected, valid(bytes, random.nextInt(bytes.length + 1)), () -> Arrays.toString(bytes));
+        }
+    }
+}
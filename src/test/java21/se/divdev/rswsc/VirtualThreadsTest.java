@@ -0,0 +1,75 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadsTest {
+
+    @BeforeEach
+    public void onlyAgainstVersionedClasses() {
+        // Run by the java21 profile with the versioned classes first, the base ones have no virtual threads
+        Assumptions.assumeTrue(Boolean.getBoolean("rswsc.virtualThreads.expected"));
+    }
+
+    @Test
+    public void testVersionedClassIsPickedUp() {
+        Assertions.assertTrue(VirtualThreads.isAvailable());
+        Assertions.assertTrue(RswsClientBuilder.newBuilder().withVirtualThreads(true).virtualThreads);
+    }
+
+    @Test
+    public void testReadLoopWriterAndDispatchRunOnVirtualThreads() throws Exception {
+        CompletableFuture<Boolean> readLoop = new CompletableFuture<>();
+        CompletableFuture<Boolean> dispatch = new CompletableFuture<>();
+        CompletableFuture<Boolean> writer = new CompletableFuture<>();
+        try (LoopbackServer server = new LoopbackServer()) {
+            RswsClient client = RswsClientBuilder.newBuilder(server.uri())
+                    .withVirtualThreads(true)
+                    .withWriteBufferWaterMarks(16 * 1024, 64 * 1024)
+                    .withFrameInterceptor(new FrameInterceptor() {
+                        @Override
+                        public boolean onInbound(final FrameHeader header, final ByteBuffer payload, final boolean endOfFrame) {
+                            readLoop.complete(Thread.currentThread().isVirtual());
+                            return true;
+                        }
+                    })
+                    .withEventHandler(new WebSocketEvent() {
+                        @Override
+                        public void onData(final boolean finalFragment, final byte[] payload) {
+                            dispatch.complete(Thread.currentThread().isVirtual());
+                        }
+
+                        @Override
+                        public void onWritabilityChanged(final boolean writable) {
+                            // Writable again once the writer has drained the queue
+                            if (writable) {
+                                writer.complete(Thread.currentThread().isVirtual());
+                            }
+                        }
+                    })
+                    .build()
+                    .connect();
+            try {
+                client.runAsync();
+                server.write(LoopbackServer.frame(0x82, "hello".getBytes()));
+                Assertions.assertTrue(readLoop.get(10, TimeUnit.SECONDS));
+                Assertions.assertTrue(dispatch.get(10, TimeUnit.SECONDS));
+
+                // Past the high watermark while nothing is read, then read
+                for (int i = 0; i < 256; i++) {
+                    client.sendBinary(new byte[64 * 1024]);
+                }
+                server.discardInput();
+                Assertions.assertTrue(writer.get(10, TimeUnit.SECONDS));
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+public class WebSocketPublisherTest {
+
+    private static final class Recorder implements Flow.Subscriber<WebSocketMessage> {
+
+        private final List<String> received = new ArrayList<>();
+
+        private Flow.Subscription subscription;
+
+        private boolean completed;
+
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final WebSocketMessage item) {
+            received.add(new String(item.toByteArray()));
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    // Messages are fed straight to the client's handler and the gate, as its read loop would
+    private final WebSocketPublisher publisher;
+
+    private final Recorder recorder = new Recorder();
+
+    public WebSocketPublisherTest() throws Exception {
+        publisher = new WebSocketPublisher(RswsClientBuilder.newBuilder(new URI("ws://127.0.0.1:1/"))
+                .withDispatchMode(DispatchMode.CALLER_RUNS));
+        publisher.subscribe(recorder);
+    }
+
+    private void receive(final String text) {
+        publisher.client().eventHandler().onMessage(WebSocketMessage.borrowed(OpCode.BINARY, ByteBuffer.wrap(text.getBytes())));
+    }
+
+    private boolean gateOpen() {
+        return publisher.client().readGate().isOpen();
+    }
+
+    @Test
+    public void testGateIsOpenOnlyWhileThereIsDemand() {
+        Assertions.assertFalse(gateOpen());
+
+        recorder.subscription.request(2);
+        Assertions.assertTrue(gateOpen());
+        receive("a");
+        Assertions.assertTrue(gateOpen());
+        receive("b");
+        Assertions.assertFalse(gateOpen());
+
+        // Read before the gate shut, held until requested
+        receive("c");
+        Assertions.assertEquals(List.of("a", "b"), recorder.received);
+        recorder.subscription.request(1);
+        Assertions.assertEquals(List.of("a", "b", "c"), recorder.received);
+        Assertions.assertFalse(gateOpen());
+        recorder.subscription.request(1);
+        Assertions.assertTrue(gateOpen());
+    }
+
+    @Test
+    public void testCompletesAfterBufferedMessages() {
+        receive("a");
+        receive("b");
+        publisher.client().readGate().onClosed(null);
+        Assertions.assertFalse(recorder.completed);
+
+        recorder.subscription.request(1);
+        Assertions.assertEquals(List.of("a"), recorder.received);
+        Assertions.assertFalse(recorder.completed);
+        recorder.subscription.request(1);
+        Assertions.assertEquals(List.of("a", "b"), recorder.received);
+        Assertions.assertTrue(recorder.completed);
+        Assertions.assertNull(recorder.error);
+    }
+
+    @Test
+    public void testFailsWithConnectionLossAfterBufferedMessages() {
+        IOException lost = new IOException("lost");
+        receive("a");
+        publisher.client().readGate().onClosed(lost);
+        Assertions.assertNull(recorder.error);
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        Assertions.assertEquals(List.of("a"), recorder.received);
+        Assertions.assertSame(lost, recorder.error);
+        Assertions.assertFalse(recorder.completed);
+    }
+
+    @Test
+    public void testNonPositiveRequestFailsSubscriber() {
+        receive("a");
+        recorder.subscription.request(0);
+
+        Assertions.assertTrue(recorder.error instanceof IllegalArgumentException);
+        Assertions.assertTrue(recorder.received.isEmpty());
+        recorder.subscription.request(1);
+        Assertions.assertTrue(recorder.received.isEmpty());
+        Assertions.assertTrue(gateOpen());
+    }
+
+    @Test
+    public void testCancelStopsDeliveryAndOpensGate() {
+        recorder.subscription.request(1);
+        receive("a");
+        Assertions.assertFalse(gateOpen());
+
+        recorder.subscription.cancel();
+        Assertions.assertTrue(gateOpen());
+        receive("b");
+        recorder.subscription.request(1);
+        Assertions.assertEquals(List.of("a"), recorder.received);
+        Assertions.assertFalse(recorder.completed);
+    }
+
+    @Test
+    public void testSecondSubscriberIsRejected() {
+        Recorder second = new Recorder();
+        publisher.subscribe(second);
+
+        Assertions.assertTrue(second.error instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,150 @@
+package se.divdev.rswsc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WebSocketSubscriberTest {
+
+    // Answer the upgrade, then read the given number of masked single byte binary frames
+    private static CompletableFuture<List<Integer>> serve(final ServerSocket server, final int frames) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream input = socket.getInputStream();
+                StringBuilder request = new StringBuilder();
+                while (request.indexOf("\r\n\r\n") < 0) {
+                    request.append((char) input.read());
+                }
+                String key = null;
+                for (String line : request.toString().split("\r\n")) {
+                    if (line.startsWith("Sec-WebSocket-Key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+                OutputStream output = socket.getOutputStream();
+                output.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                        + "Upgrade: websocket\r\n"
+                        + "Connection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: " + WebSocketUtils.generateSecWebSocketAccept(key) + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                output.flush();
+
+                DataInputStream frameInput = new DataInputStream(input);
+                List<Integer> payloads = new ArrayList<>();
+                byte[] frame = new byte[7];
+                for (int i = 0; i < frames; i++) {
+                    frameInput.readFully(frame);
+                    payloads.add((frame[6] ^ frame[2]) & 0xFF);
+                }
+                return payloads;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // Emits up to the requested number of items straight away, recording the most ever outstanding
+    private static final class Source implements Flow.Publisher<byte[]> {
+
+        private final int items;
+
+        private final AtomicLong outstanding = new AtomicLong();
+
+        private final AtomicLong maxOutstanding = new AtomicLong();
+
+        private int emitted;
+
+        private boolean emitting;
+
+        private Flow.Subscriber<? super byte[]> subscriber;
+
+        Source(final int items) {
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super byte[]> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    maxOutstanding.accumulateAndGet(outstanding.addAndGet(n), Math::max);
+                    emit();
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+
+        private synchronized void emit() {
+            if (emitting) {
+                return;
+            }
+            emitting = true;
+            while (outstanding.get() > 0 && emitted < items) {
+                outstanding.decrementAndGet();
+                subscriber.onNext(new byte[]{(byte) emitted++});
+            }
+            emitting = false;
+            if (emitted == items) {
+                emitted++;
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    @Test
+    public void testSendsEverythingWithinTheWindowAndCompletes() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<List<Integer>> received = serve(server, 10);
+            RswsClient client = RswsClientBuilder.newBuilder(new URI("ws://127.0.0.1:" + server.getLocalPort() + "/"))
+                    .build()
+                    .connect();
+            client.runAsync();
+            try {
+                WebSocketSubscriber<byte[]> subscriber = WebSocketSubscriber.binary(client, 3);
+                Source source = new Source(10);
+                source.subscribe(subscriber);
+
+                subscriber.completion().get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), received.get(10, TimeUnit.SECONDS));
+                Assertions.assertEquals(3, source.maxOutstanding.get());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCompletionFollowsUpstream() throws Exception {
+        RswsClient client = RswsClientBuilder.newBuilder(new URI("ws://127.0.0.1:1/")).build();
+
+        WebSocketSubscriber<byte[]> completed = WebSocketSubscriber.binary(client, 1);
+        new Source(0).subscribe(completed);
+        Assertions.assertTrue(completed.completion().isDone());
+        Assertions.assertFalse(completed.completion().isCompletedExceptionally());
+
+        WebSocketSubscriber<CharSequence> failed = WebSocketSubscriber.text(client, 1);
+        failed.onError(new IOException("upstream"));
+        Assertions.assertTrue(failed.completion().isCompletedExceptionally());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> WebSocketSubscriber.binary(client, 0));
+    }
+}